@@ -0,0 +1,45 @@
+
+// Blob.java
+
+/* A Blob is a connected white region in a foreground mask, found by
+   BlobFinder. It stores the region's bounding box, its area (in pixels),
+   and its center-of-gravity (COG).
+*/
+
+import java.awt.*;
+
+
+
+public class Blob
+{
+  private Rectangle bounds;
+  private double area;
+  private Point cog;
+
+
+  public Blob(Rectangle bounds, double area, Point cog)
+  {
+    this.bounds = bounds;
+    this.area = area;
+    this.cog = cog;
+  }  // end of Blob()
+
+
+  public Rectangle getBounds()
+  {  return bounds; }
+
+  public double getArea()
+  {  return area; }
+
+  public Point getCOG()
+  {  return cog; }
+
+
+  public String toString()
+  {  return "Blob at (" + cog.x + ", " + cog.y + "); area: " + Math.round(area) +
+            "; bounds: (" + bounds.x + ", " + bounds.y + ", " +
+                            bounds.width + ", " + bounds.height + ")";
+  }
+
+
+}  // end of Blob class
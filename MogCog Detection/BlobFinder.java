@@ -0,0 +1,102 @@
+
+// BlobFinder.java
+
+/* Find the blobs in a b&w foreground mask (white means movement) by
+   extracting its outer contours with cvFindContours(). Each contour
+   that is big enough becomes a Blob holding its bounding box, area,
+   and COG.
+
+   A BlobFinder is created once and reused for every frame: the contour
+   storage is cleared rather than reallocated, cvFindContours() works on a
+   scratch copy of the mask (since it changes its input), and a single
+   CvMoments object is used for all the contours.
+*/
+
+import java.awt.*;
+import java.util.*;
+
+import com.googlecode.javacpp.*;
+import com.googlecode.javacv.cpp.opencv_core.*;
+import com.googlecode.javacv.cpp.opencv_imgproc.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+
+
+
+public class BlobFinder
+{
+  private static final int MIN_BLOB_AREA = 200;   // smaller contours are ignored (in pixels)
+
+
+  private CvMemStorage contourStorage;
+  private IplImage scratchIm;      // cvFindContours() overwrites this copy of the mask
+  private CvMoments moments;
+  private ArrayList<Blob> blobs;   // the blobs found in the last frame
+
+
+  public BlobFinder(int width, int height)
+  {
+    contourStorage = CvMemStorage.create();
+    scratchIm = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+    moments = new CvMoments();
+    blobs = new ArrayList<Blob>();
+  }  // end of BlobFinder()
+
+
+
+  public ArrayList<Blob> findBlobs(IplImage maskImg)
+  /* Return the blobs in maskImg, with areas of at least MIN_BLOB_AREA pixels.
+     The list is reused by the next call. */
+  {
+    blobs.clear();
+    cvClearMemStorage(contourStorage);   // reuse the storage of the previous frame's contours
+    cvCopy(maskImg, scratchIm);
+
+    CvSeq contour = new CvSeq(null);
+    cvFindContours(scratchIm, contourStorage, contour, Loader.sizeof(CvContour.class),
+                             CV_RETR_EXTERNAL, CV_CHAIN_APPROX_SIMPLE);
+          // only outer contours, compressed to their end points
+
+    while ((contour != null) && !contour.isNull()) {
+      double area = Math.abs( cvContourArea(contour, CV_WHOLE_SEQ, 0) );
+      if (area >= MIN_BLOB_AREA) {
+        Point cog = findCOG(contour);
+        if (cog != null) {
+          CvRect r = cvBoundingRect(contour, 0);
+          blobs.add( new Blob( new Rectangle(r.x(), r.y(), r.width(), r.height()), area, cog));
+        }
+      }
+      contour = contour.h_next();
+    }
+    return blobs;
+  }  // end of findBlobs()
+
+
+
+  private Point findCOG(CvSeq contour)
+  // use the contour's moments to calculate its (x,y) center
+  {
+    cvMoments(contour, moments, 0);    // 0 == contour, not an image
+    double m00 = cvGetSpatialMoment(moments, 0, 0) ; 
+    if (m00 == 0)
+      return null;
+    double m10 = cvGetSpatialMoment(moments, 1, 0) ; 
+    double m01 = cvGetSpatialMoment(moments, 0, 1); 
+    return new Point( (int) Math.round(m10/m00), (int) Math.round(m01/m00));
+  }  // end of findCOG()
+
+
+
+  public void drawBlobs(IplImage im)
+  // draw the last frame's blobs as boxes onto im
+  {
+    for (Blob b : blobs) {
+      Rectangle r = b.getBounds();
+      cvRectangle(im, cvPoint(r.x, r.y), cvPoint(r.x + r.width, r.y + r.height),
+                         CvScalar.GREEN, 2, CV_AA, 0);
+    }
+  }  // end of drawBlobs()
+
+
+}  // end of BlobFinder class
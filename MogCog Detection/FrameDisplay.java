@@ -0,0 +1,155 @@
+
+// FrameDisplay.java
+
+/* A CanvasFrame driven by its own render thread, so that the processing
+   loop never waits for Swing to draw an image.
+
+   The processing loop calls post() with a new image; the image is copied
+   into a back buffer, which is then swapped with the 'pending' buffer. The
+   render thread swaps the pending buffer with its 'front' buffer, and shows
+   that. This triple buffering means that only the latest frame is ever shown,
+   older unshown frames are silently dropped, and no image is shared between
+   the two threads while it is being used.
+
+   The render thread shows at most one image every minPeriod ms. isReady()
+   lets the processing loop skip preparing an image (e.g. drawing onto it, or
+   reading back the MOG background) which would not be shown anyway.
+*/
+
+import com.googlecode.javacv.*;
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class FrameDisplay implements Runnable
+{
+  private CanvasFrame canvas;
+  private long minPeriod;     // ms between shown images
+
+  private IplImage backIm = null;      // written by the processing thread
+  private IplImage pendingIm = null;   // latest posted image, not yet shown
+  private IplImage frontIm = null;     // being shown by the render thread
+  private boolean hasPending = false;
+
+  private volatile long lastShowTime = 0;
+  private volatile boolean isRunning;
+
+  // statistics
+  private volatile int numPosted = 0;
+  private volatile int numShown = 0;
+
+
+
+  public FrameDisplay(String title, int xPos, int yPos, long minPeriod)
+  {
+    this.minPeriod = minPeriod;
+    canvas = new CanvasFrame(title);
+    canvas.setLocation(xPos, yPos);
+
+    isRunning = true;
+    Thread t = new Thread(this, title + " renderer");
+    t.setDaemon(true);
+    t.start();
+  }  // end of FrameDisplay()
+
+
+
+  public boolean isVisible()
+  {  return canvas.isVisible();  }
+
+
+  public boolean isReady()
+  /* true if a posted image would be shown soon, i.e. the last one has been
+     shown and the minimum period has passed */
+  {
+    synchronized(this) {
+      if (hasPending)
+        return false;
+    }
+    return (System.currentTimeMillis() - lastShowTime >= minPeriod);
+  }  // end of isReady()
+
+
+
+  public void post(IplImage im)
+  /* Copy im into the back buffer, and make it the pending image.
+     Called by the processing thread; it never blocks on the render thread. */
+  {
+    if (!isRunning || (im == null))
+      return;
+
+    if ((backIm == null) || (backIm.width() != im.width()) ||
+        (backIm.height() != im.height()) || (backIm.nChannels() != im.nChannels()))
+      backIm = IplImage.create(im.width(), im.height(), im.depth(), im.nChannels());
+    cvCopy(im, backIm);
+
+    synchronized(this) {
+      IplImage swapIm = pendingIm;
+      pendingIm = backIm;
+      backIm = swapIm;
+      hasPending = true;
+      notify();
+    }
+    numPosted++;
+  }  // end of post()
+
+
+
+  public void run()
+  // show the latest pending image, no more often than every minPeriod ms
+  {
+    while (isRunning) {
+      synchronized(this) {
+        while (isRunning && !hasPending) {
+          try {
+            wait();
+          }
+          catch(InterruptedException e) {}
+        }
+        if (!isRunning)
+          break;
+        IplImage swapIm = frontIm;
+        frontIm = pendingIm;
+        pendingIm = swapIm;
+        hasPending = false;
+      }
+
+      long startTime = System.currentTimeMillis();
+      canvas.showImage(frontIm);
+      lastShowTime = startTime;
+      numShown++;
+
+      long duration = System.currentTimeMillis() - startTime;
+      if (duration < minPeriod) {
+        try {
+          Thread.sleep(minPeriod - duration);
+        }
+        catch(InterruptedException e) {}
+      }
+    }
+  }  // end of run()
+
+
+
+  public int getNumPosted()
+  {  return numPosted;  }
+
+  public int getNumShown()
+  {  return numShown;  }
+
+
+
+  public void dispose()
+  // stop the render thread and close the canvas
+  {
+    synchronized(this) {
+      isRunning = false;
+      notify();
+    }
+    canvas.dispose();
+  }  // end of dispose()
+
+
+}  // end of FrameDisplay class
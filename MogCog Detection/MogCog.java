@@ -8,6 +8,18 @@
    Display the original image with the COG marked as a circle, and
    the current difference image in two CanvasFrames. 
 
+   A BlobFinder also extracts each separate moving region from the difference
+   image as a Blob (bounding box, area, and COG); the blobs are drawn as green
+   boxes.
+
+   The CanvasFrames are FrameDisplay objects, each with its own render
+   thread, so the time taken to draw them is not part of the processing time.
+   Command line options:
+      -nodisplay    run without any canvases (e.g. for timing the detector)
+      -bg           show the MOG background image in a third canvas; the
+                    background is only read back when that canvas is ready
+                    to show it
+
    The foreground movement is extracted using OpenCV's implementation of the
    Gaussian Mixture-based Background/Foreground Segmentation algorithm
    (BackgroundSubtractorMOG2)
@@ -30,6 +42,7 @@
 
 import java.awt.*;
 import java.io.*;
+import java.util.ArrayList;
 
 import com.googlecode.javacv.*;
 import com.googlecode.javacv.cpp.*;
@@ -52,18 +65,35 @@ public class MogCog
   private static final int MIN_PIXELS = 100;   
           // minimum number of non-black pixels needed for COG calculation
 
+  private static final int DISPLAY_PERIOD = 40;   // ms; min time between canvas updates
 
-  private static CvMemStorage contourStorage;
+  // MOG settings (MogSweep compares other values for these)
+  public static final int HISTORY = 300;          // a larger motion history tends to create larger blobs
+  public static final float VAR_THRESHOLD = 16;
+  public static final int NUM_MIXTURES = 3;       // was 5
+  public static final double LEARNING_RATE = 0.005;  // -1;
+                  // set close to 0 if initial background varies little
+                  // so start out with only the background and wait a few seconds
+  public static final int MORPH_ITERS = 5;        // erosion and dilation iterations
 
 
 
   public static void main(String[] args) throws Exception 
   {
+    boolean showDisplay = true;
+    boolean showBackground = false;
+    for (String arg : args) {
+      if (arg.equals("-nodisplay"))
+        showDisplay = false;
+      else if (arg.equals("-bg"))
+        showBackground = true;
+      else
+        System.out.println("Unknown option: " + arg);
+    }
+
     // Preload the opencv_objdetect module to work around a known
     Loader.load(opencv_objdetect.class);
 
-    contourStorage = CvMemStorage.create();
-
     System.out.println("Initializing frame grabber...");
     OpenCVFrameGrabber grabber = new OpenCVFrameGrabber(CV_CAP_ANY);
     grabber.start();
@@ -76,19 +106,24 @@ public class MogCog
               /* b&w version of the grabbed image, with movement shown in white,
                  the rest in black, based on the BackgroundSubtractorMOG2 algorithm */
 
+    BlobFinder blobFinder = new BlobFinder(width, height);
+
     IplImage background = IplImage.create(width, height, IPL_DEPTH_8U, 3);
               /* the background of the grabbed image as determined by the
-                 BackgroundSubtractorMOG2 algorithm */
-
-    CanvasFrame grabCanvas = new CanvasFrame("Camera");
-    grabCanvas.setLocation(0, 0);
-    CanvasFrame mogCanvas = new CanvasFrame("MOG Info");
-    mogCanvas.setLocation(width+5, 0);
+                 BackgroundSubtractorMOG2 algorithm; only read back when
+                 it is going to be displayed */
+
+    FrameDisplay grabDisplay = null;
+    FrameDisplay mogDisplay = null;
+    FrameDisplay bgDisplay = null;
+    if (showDisplay) {
+      grabDisplay = new FrameDisplay("Camera", 0, 0, DISPLAY_PERIOD);
+      mogDisplay = new FrameDisplay("MOG Info", width+5, 0, DISPLAY_PERIOD);
+      if (showBackground)
+        bgDisplay = new FrameDisplay("MOG Background", 0, height+5, DISPLAY_PERIOD);
+    }
 
-    BackgroundSubtractorMOG2 mog = new BackgroundSubtractorMOG2(300, 16, false);
-        // a larger motion history tends to create larger blobs
-          // motion history, var Threshold, Shadow Detection
-    mog.set("nmixtures", 3);    // was 5
+    BackgroundSubtractorMOG2 mog = createMOG(HISTORY, VAR_THRESHOLD, NUM_MIXTURES);
     System.out.println("MOG num. mixtures: " + mog.getInt("nmixtures"));
     System.out.println("MOG shadow detection: " + mog.getBool("detectShadows"));
           // in OpenCV version 2.4.2 only detectShadows, history and nmixtures can be set/get;
@@ -107,7 +142,7 @@ public class MogCog
     {  System.out.println(e);  }
 
     // process the grabbed camera image
-    while (grabCanvas.isVisible() && mogCanvas.isVisible()) {
+    while (!showDisplay || (grabDisplay.isVisible() && mogDisplay.isVisible())) {
       long startTime = System.currentTimeMillis();
       grab = grabber.grab();
       if (grab == null) {
@@ -115,29 +150,31 @@ public class MogCog
         break;
       }
 
-      //  create a binary mask of foreground objects (and update the background)
-      mog.apply(grab, fgMask, 0.005);  // -1);    
-                  // learning rate; set close to 0 if initial background varies little
-                  // so start out with only the background and wait a few seconds
-      mog.getBackgroundImage(background);
-
-      // opening: erosion then dilation to reduce noise
-      cvErode(fgMask, fgMask, null, 5);
-      cvDilate(fgMask, fgMask, null, 5);
-      cvSmooth(fgMask, fgMask, CV_BLUR, 5);  // more noise reduction
-      cvThreshold(fgMask, fgMask, 128, 255, CV_THRESH_BINARY);   // make b&w 
-
-      mogCanvas.showImage(fgMask);
-      // mogCanvas.showImage(background);
-
+      extractForeground(mog, grab, fgMask, LEARNING_RATE, MORPH_ITERS);
       Point pt = findCOG(fgMask);
-      if (pt != null)    // only update COG point if there is a new point
-        cvCircle(grab, cvPoint(pt.x, pt.y), 16,      // radius of circle
-                            CvScalar.BLUE, CV_FILLED, CV_AA, 0);
-      grabCanvas.showImage(grab);
+      ArrayList<Blob> blobs = blobFinder.findBlobs(fgMask);
 
       long duration = System.currentTimeMillis() - startTime;
-      System.out.println("Processing time: " + duration);
+      System.out.println("Processing time: " + duration + "; no. of blobs: " + blobs.size());
+
+      // hand over images to the displays; they are only prepared if they'll be shown
+      if (showDisplay) {
+        if (mogDisplay.isReady())
+          mogDisplay.post(fgMask);
+        if ((bgDisplay != null) && bgDisplay.isReady()) {
+          mog.getBackgroundImage(background);
+          bgDisplay.post(background);
+        }
+        if (grabDisplay.isReady()) {
+          blobFinder.drawBlobs(grab);
+          if (pt != null)    // only update COG point if there is a new point
+            cvCircle(grab, cvPoint(pt.x, pt.y), 16,      // radius of circle
+                                CvScalar.BLUE, CV_FILLED, CV_AA, 0);
+          grabDisplay.post(grab);
+        }
+      }
+
+      duration = System.currentTimeMillis() - startTime;
       if (duration < DELAY) {
         try {
           Thread.sleep(DELAY - duration); 
@@ -147,12 +184,45 @@ public class MogCog
     }
 
     grabber.stop();
-    grabCanvas.dispose();
-    mogCanvas.dispose();
+    if (showDisplay) {
+      grabDisplay.dispose();
+      mogDisplay.dispose();
+      if (bgDisplay != null)
+        bgDisplay.dispose();
+    }
   }  // end of main()
 
 
 
+  public static BackgroundSubtractorMOG2 createMOG(int history, float varThreshold,
+                                                              int numMixtures)
+  {
+    BackgroundSubtractorMOG2 mog = new BackgroundSubtractorMOG2(history, varThreshold, false);
+          // motion history, var Threshold, Shadow Detection
+    mog.set("nmixtures", numMixtures);
+    return mog;
+  }  // end of createMOG()
+
+
+
+  public static void extractForeground(BackgroundSubtractorMOG2 mog, IplImage im,
+                              IplImage fgMask, double learningRate, int morphIters)
+  /* Create a binary mask of foreground objects in im (and update the background).
+     The mask is cleaned up with an opening, a blur, and a threshold */
+  {
+    mog.apply(im, fgMask, learningRate);
+
+    // opening: erosion then dilation to reduce noise
+    if (morphIters > 0) {
+      cvErode(fgMask, fgMask, null, morphIters);
+      cvDilate(fgMask, fgMask, null, morphIters);
+    }
+    cvSmooth(fgMask, fgMask, CV_BLUR, 5);  // more noise reduction
+    cvThreshold(fgMask, fgMask, 128, 255, CV_THRESH_BINARY);   // make b&w 
+  }  // end of extractForeground()
+
+
+
   private static Point findCOG(IplImage maskImg)
   /*  If there are enough non-black pixels in the mask image
       (white means movement), then calculate the moments,
@@ -0,0 +1,257 @@
+
+// MogSweep.java
+
+/* Replay a recorded video through the MogCog foreground extraction for a grid
+   of MOG parameter settings, and report each setting's speed and quality:
+     * frames/sec and CPU ms per frame of MogCog.extractForeground()
+     * precision and recall of its foreground mask against a ground-truth mask
+
+   The idea is to pick the cheapest setting that is still accurate enough, rather
+   than relying on the hand-picked values in MogCog.
+
+   The video and ground truth are loaded into memory once, and then the settings
+   are run in parallel, each with its own BackgroundSubtractorMOG2. The fps values
+   are measured while the other settings are also running, so they are only
+   comparable with each other; use "-threads 1" for absolute values. CPU time
+   is measured per thread, so is less affected by the parallelism.
+
+   Usage:
+     > java MogSweep <video> <ground truth> [-frames n] [-warmup n] [-threads n]
+                                            [-precision p] [-recall r]
+
+   The ground truth is a video (or an OpenCV image sequence, such as "gt/%04d.png")
+   with a frame for every video frame, in which foreground pixels are non-black.
+   The first 'warmup' frames are not used for the quality measures, since the MOG
+   background model is still being learnt. The -precision and -recall values are
+   the accuracy bar used to choose the cheapest setting.
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.management.*;
+
+import com.googlecode.javacv.*;
+import com.googlecode.javacv.cpp.*;
+import com.googlecode.javacpp.*;
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+import com.googlecode.javacv.cpp.opencv_video.BackgroundSubtractorMOG2;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+
+
+
+public class MogSweep
+{
+  // the parameter grid
+  private static final int[] HISTORIES = { 100, 300, 500 };
+  private static final float[] VAR_THRESHOLDS = { 9, 16, 25 };
+  private static final int[] NUM_MIXTURES = { 3, 5 };
+  private static final double[] LEARNING_RATES = { 0.001, 0.005, 0.01 };
+  private static final int[] MORPH_ITERS = { 1, 3, 5 };
+
+  private static final int MAX_FRAMES = 500;    // limits the memory used by the loaded video
+  private static final int WARMUP_FRAMES = 50;
+
+
+  private static ArrayList<IplImage> frames = new ArrayList<IplImage>();
+  private static ArrayList<IplImage> truthMasks = new ArrayList<IplImage>();   // b&w
+
+
+
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 2) {
+      System.out.println("Usage: java MogSweep <video> <ground truth> [-frames n] [-warmup n]" +
+                                 " [-threads n] [-precision p] [-recall r]");
+      return;
+    }
+
+    int maxFrames = MAX_FRAMES;
+    int warmup = WARMUP_FRAMES;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    double minPrecision = 0.8;
+    double minRecall = 0.8;
+    for (int i = 2; i < args.length-1; i += 2) {
+      if (args[i].equals("-frames"))
+        maxFrames = Integer.parseInt(args[i+1]);
+      else if (args[i].equals("-warmup"))
+        warmup = Integer.parseInt(args[i+1]);
+      else if (args[i].equals("-threads"))
+        numThreads = Integer.parseInt(args[i+1]);
+      else if (args[i].equals("-precision"))
+        minPrecision = Double.parseDouble(args[i+1]);
+      else if (args[i].equals("-recall"))
+        minRecall = Double.parseDouble(args[i+1]);
+      else
+        System.out.println("Unknown option: " + args[i]);
+    }
+    if ((args.length - 2) % 2 == 1)    // an option without its value
+      System.out.println("Missing value for option: " + args[args.length-1]);
+
+    // Preload the opencv_objdetect module to work around a known
+    Loader.load(opencv_objdetect.class);
+
+    loadSequence(args[0], args[1], maxFrames);
+    if (frames.size() <= warmup) {
+      System.out.println("Need more than " + warmup + " frames; only loaded " + frames.size());
+      return;
+    }
+
+    // run every parameter setting
+    ArrayList<SweepTask> tasks = new ArrayList<SweepTask>();
+    for (int history : HISTORIES)
+      for (float varThreshold : VAR_THRESHOLDS)
+        for (int numMixtures : NUM_MIXTURES)
+          for (double learningRate : LEARNING_RATES)
+            for (int morphIters : MORPH_ITERS)
+              tasks.add( new SweepTask(history, varThreshold, numMixtures,
+                                             learningRate, morphIters, warmup));
+    System.out.println("Running " + tasks.size() + " settings on " + numThreads + " threads...");
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    long startTime = System.currentTimeMillis();
+    List<Future<SweepTask>> results = pool.invokeAll(tasks);
+    pool.shutdown();
+    System.out.println("Sweep time: " + (System.currentTimeMillis() - startTime) + " ms\n");
+
+    System.out.println(SweepTask.HEADER);
+    SweepTask cheapest = null;
+    for (Future<SweepTask> f : results) {
+      SweepTask t = f.get();
+      System.out.println(t);
+      if ((t.getPrecision() >= minPrecision) && (t.getRecall() >= minRecall) &&
+          ((cheapest == null) || (t.getCpuPerFrame() < cheapest.getCpuPerFrame())))
+        cheapest = t;
+    }
+
+    System.out.println();
+    if (cheapest == null)
+      System.out.printf("No setting has precision >= %.2f and recall >= %.2f%n",
+                                               minPrecision, minRecall);
+    else
+      System.out.println("Cheapest setting with precision >= " + minPrecision +
+                         " and recall >= " + minRecall + ":\n" + SweepTask.HEADER + "\n" + cheapest);
+  }  // end of main()
+
+
+
+  private static void loadSequence(String videoFnm, String truthFnm, int maxFrames)
+                                                                   throws Exception
+  /* load up to maxFrames frames from the video, and their ground-truth masks;
+     copies are needed since a grabber reuses its image */
+  {
+    System.out.println("Loading " + videoFnm + " and " + truthFnm + "...");
+    OpenCVFrameGrabber grabber = new OpenCVFrameGrabber(videoFnm);
+    OpenCVFrameGrabber truthGrabber = new OpenCVFrameGrabber(truthFnm);
+    grabber.start();
+    truthGrabber.start();
+
+    IplImage grab, truthGrab;
+    while ((frames.size() < maxFrames) &&
+           ((grab = grabber.grab()) != null) && ((truthGrab = truthGrabber.grab()) != null)) {
+      IplImage frame = IplImage.create(grab.width(), grab.height(), grab.depth(), grab.nChannels());
+      cvCopy(grab, frame);
+      frames.add(frame);
+
+      IplImage mask = IplImage.create(truthGrab.width(), truthGrab.height(), IPL_DEPTH_8U, 1);
+      if (truthGrab.nChannels() == 1)
+        cvCopy(truthGrab, mask);
+      else
+        cvCvtColor(truthGrab, mask, CV_BGR2GRAY);
+      cvThreshold(mask, mask, 0, 255, CV_THRESH_BINARY);   // non-black --> white
+      truthMasks.add(mask);
+    }
+    grabber.stop();
+    truthGrabber.stop();
+    System.out.println("Loaded " + frames.size() + " frames");
+  }  // end of loadSequence()
+
+
+
+  // ---------------------------------------------------------------
+
+  private static class SweepTask implements Callable<SweepTask>
+  /* Runs the loaded frames through a BackgroundSubtractorMOG2 with one
+     parameter setting, and holds the resulting measurements */
+  {
+    static final String HEADER =
+        "history varThr mixes learnRate morph |    fps  cpu ms | precision recall";
+
+    private int history, numMixtures, morphIters, warmup;
+    private float varThreshold;
+    private double learningRate;
+
+    private double fps, cpuPerFrame;   // cpuPerFrame is in ms
+    private double precision, recall;
+
+
+    public SweepTask(int history, float varThreshold, int numMixtures,
+                          double learningRate, int morphIters, int warmup)
+    {
+      this.history = history;
+      this.varThreshold = varThreshold;
+      this.numMixtures = numMixtures;
+      this.learningRate = learningRate;
+      this.morphIters = morphIters;
+      this.warmup = warmup;
+    }
+
+
+    public SweepTask call()
+    {
+      BackgroundSubtractorMOG2 mog = MogCog.createMOG(history, varThreshold, numMixtures);
+      IplImage first = frames.get(0);
+      IplImage fgMask = IplImage.create(first.width(), first.height(), IPL_DEPTH_8U, 1);
+      IplImage bothMask = IplImage.create(first.width(), first.height(), IPL_DEPTH_8U, 1);
+
+      ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+      long wallTime = 0;
+      long cpuTime = 0;
+      long truePos = 0, numDetected = 0, numTruth = 0;   // pixel counts
+
+      for (int i = 0; i < frames.size(); i++) {
+        long wallStart = System.nanoTime();
+        long cpuStart = threadBean.getCurrentThreadCpuTime();
+        MogCog.extractForeground(mog, frames.get(i), fgMask, learningRate, morphIters);
+        cpuTime += threadBean.getCurrentThreadCpuTime() - cpuStart;
+        wallTime += System.nanoTime() - wallStart;
+
+        if (i >= warmup) {   // compare with the ground truth
+          IplImage truthMask = truthMasks.get(i);
+          cvAnd(fgMask, truthMask, bothMask, null);
+          truePos += cvCountNonZero(bothMask);
+          numDetected += cvCountNonZero(fgMask);
+          numTruth += cvCountNonZero(truthMask);
+        }
+      }
+
+      fps = (frames.size() * 1e9) / wallTime;
+      cpuPerFrame = (cpuTime / 1e6) / frames.size();
+      precision = (numDetected == 0) ? 1.0 : ((double) truePos) / numDetected;
+      recall = (numTruth == 0) ? 1.0 : ((double) truePos) / numTruth;
+      return this;
+    }  // end of call()
+
+
+    public double getCpuPerFrame()
+    {  return cpuPerFrame;  }
+
+    public double getPrecision()
+    {  return precision;  }
+
+    public double getRecall()
+    {  return recall;  }
+
+
+    public String toString()
+    {  return String.format("%7d %6.1f %5d %9.4f %5d | %6.1f %7.2f | %9.3f %6.3f",
+                        history, varThreshold, numMixtures, learningRate, morphIters,
+                        fps, cpuPerFrame, precision, recall);
+    }
+
+  }  // end of SweepTask class
+
+
+}  // end of MogSweep class
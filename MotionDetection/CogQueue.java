@@ -0,0 +1,86 @@
+
+// CogQueue.java
+
+/* A lock-free queue of timestamped COG samples, passed from one producer
+   thread (MotionPanel's detection loop) to one consumer thread (the ripple
+   animation loop).
+
+   The samples are stored in a ring of preallocated arrays. The producer only
+   writes the tail count, and the consumer only writes the head count; each
+   count is published with AtomicLong.lazySet() after the array entries it
+   covers have been written (or read), so no locks are needed, no sample can
+   be seen half-written, and nothing is allocated per sample.
+
+   If the queue is full (the consumer has stopped), new samples are dropped.
+*/
+package MotionDetection;
+
+import java.util.concurrent.atomic.*;
+
+
+
+public class CogQueue
+{
+  private final int capacity;
+  private final int mask;
+  private final int[] xs, ys;
+  private final long[] times;    // System.nanoTime() of each sample
+
+  private final AtomicLong head = new AtomicLong(0);   // no. of samples taken
+  private final AtomicLong tail = new AtomicLong(0);   // no. of samples added
+
+
+
+  public CogQueue(int minCapacity)
+  // the capacity is rounded up to a power of 2
+  {
+    int cap = 1;
+    while (cap < minCapacity)
+      cap <<= 1;
+    capacity = cap;
+    mask = cap - 1;
+    xs = new int[cap];
+    ys = new int[cap];
+    times = new long[cap];
+  }  // end of CogQueue()
+
+
+
+  public boolean offer(int x, int y, long time)
+  // add a sample (producer only); returns false if the queue is full
+  {
+    long t = tail.get();
+    if (t - head.get() == capacity)
+      return false;
+    int i = (int) (t & mask);
+    xs[i] = x;
+    ys[i] = y;
+    times[i] = time;
+    tail.lazySet(t + 1);     // publish the sample
+    return true;
+  }  // end of offer()
+
+
+
+  public int drain(int[] outXs, int[] outYs, long[] outTimes, int offset, int max)
+  /* move up to max samples, oldest first, into the arrays starting at
+     offset (consumer only); returns the number moved */
+  {
+    long h = head.get();
+    int n = (int) Math.min(tail.get() - h, max);
+    for (int k = 0; k < n; k++) {
+      int i = (int) ((h + k) & mask);
+      outXs[offset+k] = xs[i];
+      outYs[offset+k] = ys[i];
+      outTimes[offset+k] = times[i];
+    }
+    head.lazySet(h + n);     // the entries can now be reused
+    return n;
+  }  // end of drain()
+
+
+
+  public int getCapacity()
+  {  return capacity;  }
+
+}  // end of CogQueue class
@@ -0,0 +1,162 @@
+
+// CogTrail.java
+
+/* Turns the COG samples in a CogQueue (which arrive at the detection rate,
+   about 10 per second) into a smooth trail of ripple disturbances, drawn
+   at the animation rate (about 60 frames per second).
+
+   The trail is played back DELAY nanoseconds behind real time, so that
+   there is usually a sample on each side of the playback time. The COG
+   position is linearly interpolated between these two samples, and each
+   frame disturbs the water at points SPACING pixels apart along the line
+   from the previous frame's position to the new one.
+
+   If two samples are more than MAX_GAP apart, the COG is assumed to have
+   stopped and reappeared, so it jumps instead of leaving a trail. When the
+   playback time passes the newest sample, the COG stays there, and the
+   water isn't disturbed again until it moves.
+
+   The sample positions are multiplied by scaleX and scaleY, to convert
+   them from camera to ripple (texture) coordinates.
+*/
+package MotionDetection;
+
+
+
+public class CogTrail
+{
+  private static final long DELAY = 120000000L;     // ns (a little over the detection period)
+  private static final long MAX_GAP = 500000000L;   // ns
+  private static final int SPACING = 4;             // pixels between disturbances
+
+  private CogQueue queue;
+  private float scaleX, scaleY;     // camera to ripple coordinates
+
+  // samples drained from the queue, but not yet reached by the playback time
+  private int[] pendXs, pendYs;
+  private long[] pendTimes;
+  private int numPending = 0;
+
+  // the samples on either side of the playback time
+  private int numSamples = 0;     // 0, 1 or 2
+  private float x0, y0, x1, y1;    // in ripple coordinates
+  private long t0, t1;
+
+  // the last disturbed position
+  private boolean hasLast = false;
+  private float lastX, lastY;
+
+  private int numDisturbs = 0;    // in the last update()
+
+
+
+  public CogTrail(CogQueue queue, float scaleX, float scaleY)
+  {
+    this.queue = queue;
+    this.scaleX = scaleX;
+    this.scaleY = scaleY;
+    pendXs = new int[queue.getCapacity()];
+    pendYs = new int[queue.getCapacity()];
+    pendTimes = new long[queue.getCapacity()];
+  }  // end of CogTrail()
+
+
+
+  public void update(long now, RippleSimulator water)
+  /* Drain the queue, and disturb the water along the path from the last
+     position to the position at the playback time (now - DELAY). */
+  {
+    numDisturbs = 0;
+    // add to the samples left over from the last call
+    numPending += queue.drain(pendXs, pendYs, pendTimes, numPending,
+                                               pendXs.length - numPending);
+
+    long playTime = now - DELAY;
+    int used = 0;
+    while ((used < numPending) && (pendTimes[used] <= playTime || numSamples < 2)) {
+      addSample(pendXs[used] * scaleX, pendYs[used] * scaleY, pendTimes[used]);
+      used++;
+    }
+    if (used > 0) {     // shift the rest to the front
+      System.arraycopy(pendXs, used, pendXs, 0, numPending - used);
+      System.arraycopy(pendYs, used, pendYs, 0, numPending - used);
+      System.arraycopy(pendTimes, used, pendTimes, 0, numPending - used);
+      numPending -= used;
+    }
+    if (numSamples == 0)
+      return;
+
+    // the position at the playback time
+    float x, y;
+    if ((numSamples == 1) || (playTime >= t1)) {
+      x = x1;
+      y = y1;
+    }
+    else if (playTime <= t0) {
+      x = x0;
+      y = y0;
+    }
+    else {
+      float frac = ((float) (playTime - t0)) / (t1 - t0);
+      x = x0 + frac * (x1 - x0);
+      y = y0 + frac * (y1 - y0);
+    }
+
+    if (!hasLast) {
+      water.disturb(Math.round(x), Math.round(y));
+      numDisturbs = 1;
+    }
+    else if ((Math.round(x) != Math.round(lastX)) || (Math.round(y) != Math.round(lastY)))
+      disturbAlong(water, lastX, lastY, x, y);
+    hasLast = true;
+    lastX = x;
+    lastY = y;
+  }  // end of update()
+
+
+
+  private void addSample(float x, float y, long time)
+  // the newest sample becomes the end of the segment being played back
+  {
+    if ((numSamples == 0) || (time - t1 > MAX_GAP)) {   // start again here
+      x0 = x;
+      y0 = y;
+      t0 = time;
+      numSamples = 1;
+      hasLast = false;
+    }
+    else {
+      if (numSamples == 2) {
+        x0 = x1;
+        y0 = y1;
+        t0 = t1;
+      }
+      numSamples = 2;
+    }
+    x1 = x;
+    y1 = y;
+    t1 = time;
+  }  // end of addSample()
+
+
+
+  private void disturbAlong(RippleSimulator water, float fromX, float fromY,
+                                                   float toX, float toY)
+  // disturb at points SPACING apart from (fromX,fromY) (not included) to (toX,toY)
+  {
+    float dx = toX - fromX;
+    float dy = toY - fromY;
+    int steps = Math.max(1, (int) Math.ceil(Math.sqrt(dx * dx + dy * dy) / SPACING));
+    for (int i = 1; i <= steps; i++) {
+      water.disturb(Math.round(fromX + dx * i / steps), Math.round(fromY + dy * i / steps));
+      numDisturbs++;
+    }
+  }  // end of disturbAlong()
+
+
+
+  public int getNumDisturbs()
+  // the number of disturbances made by the last update()
+  {  return numDisturbs;  }
+
+}  // end of CogTrail class
@@ -0,0 +1,175 @@
+
+// FeedLayout.java
+
+/* Lays out the timeline's entries as word-wrapped paragraphs, one per
+   entry, for drawing over the overlay image.
+
+   Each entry is broken into lines no wider than wrapWidth by a
+   LineBreakMeasurer, which breaks between words (and only breaks a word if
+   it doesn't fit on a line by itself). The resulting TextLayouts hold the
+   glyphs and their metrics, so drawing a line needs no more measuring.
+
+   The lines of each entry are cached, keyed by the entry's text, in an LRU
+   map of up to MAX_CACHED entries. When the timeline changes, usually only
+   a few new entries have arrived at the top, so only those are laid out;
+   the rest are drawn from the cache. The cache is cleared if the wrap
+   width or the FontRenderContext (e.g. the antialiasing) changes, since
+   the layouts depend on them.
+
+   The lines can be drawn by a Graphics2D (draw()), or by blending glyphs
+   from a GlyphAtlas into a pixel array (drawPixels()); for the second, the
+   lines should be broken using the atlas' FontRenderContext, and each
+   line's text is kept as well as its TextLayout.
+*/
+package MotionDetection;
+
+import java.awt.*;
+import java.awt.font.*;
+import java.text.*;
+import java.util.*;
+import java.util.List;
+
+
+
+public class FeedLayout
+{
+  private static final int MAX_CACHED = 256;    // entries
+
+  private Font font;
+  private float wrapWidth;
+  private float paraGap;       // extra space between entries
+  private FontRenderContext frc = null;     // used by the cached layouts
+
+  private static class Paragraph
+  // an entry's lines
+  {
+    TextLayout[] layouts;
+    String[] texts;
+  }
+
+  private LinkedHashMap<String, Paragraph> cache =
+        new LinkedHashMap<String, Paragraph>(64, 0.75f, true) {   // access order
+          protected boolean removeEldestEntry(Map.Entry<String, Paragraph> e)
+          {  return size() > MAX_CACHED;  }
+        };
+  private long numLaidOut = 0;     // entries not found in the cache
+
+
+
+  public FeedLayout(Font font, float wrapWidth, float paraGap)
+  {
+    this.font = font;
+    this.wrapWidth = wrapWidth;
+    this.paraGap = paraGap;
+  }  // end of FeedLayout()
+
+
+
+  public void setWrapWidth(float w)
+  {
+    if (w != wrapWidth) {
+      wrapWidth = w;
+      cache.clear();
+    }
+  }  // end of setWrapWidth()
+
+
+
+  public TextLayout[] getLines(String entry, FontRenderContext rc)
+  // the entry's lines, from the cache if possible
+  {  return getParagraph(entry, rc).layouts;  }
+
+
+
+  private Paragraph getParagraph(String entry, FontRenderContext rc)
+  {
+    if (!rc.equals(frc)) {
+      frc = rc;
+      cache.clear();
+    }
+    Paragraph para = cache.get(entry);
+    if (para == null) {
+      para = breakLines(entry);
+      cache.put(entry, para);
+      numLaidOut++;
+    }
+    return para;
+  }  // end of getParagraph()
+
+
+
+  private Paragraph breakLines(String entry)
+  {
+    ArrayList<TextLayout> layouts = new ArrayList<TextLayout>();
+    ArrayList<String> texts = new ArrayList<String>();
+    if (entry.length() > 0) {
+      AttributedString as = new AttributedString(entry);
+      as.addAttribute(TextAttribute.FONT, font);
+      LineBreakMeasurer lbm = new LineBreakMeasurer(as.getIterator(), frc);
+      while (lbm.getPosition() < entry.length()) {
+        int start = lbm.getPosition();
+        layouts.add( lbm.nextLayout(wrapWidth) );
+        texts.add( entry.substring(start, lbm.getPosition()) );
+      }
+    }
+    Paragraph para = new Paragraph();
+    para.layouts = layouts.toArray(new TextLayout[layouts.size()]);
+    para.texts = texts.toArray(new String[texts.size()]);
+    return para;
+  }  // end of breakLines()
+
+
+
+  public float draw(Graphics2D g2d, List<String> entries, float x, float y, float maxY)
+  /* draw the entries' lines down from y (the top of the first line), stopping
+     at the first line that would go below maxY; returns the y after the
+     last line drawn */
+  {
+    FontRenderContext rc = g2d.getFontRenderContext();
+    for (String entry : entries) {
+      for (TextLayout line : getLines(entry, rc)) {
+        float baseline = y + line.getAscent();
+        if (baseline + line.getDescent() > maxY)
+          return y;
+        line.draw(g2d, x, baseline);
+        y = baseline + line.getDescent() + line.getLeading();
+      }
+      y += paraGap;
+    }
+    return y;
+  }  // end of draw()
+
+
+
+  public float drawPixels(GlyphAtlas atlas, int color, int[] pixels, int width,
+                  int height, List<String> entries, float x, float y, float maxY)
+  /* like draw(), but blends the glyphs from the atlas (which must be for
+     this layout's font) into the width*height ARGB pixels, in the RGB color */
+  {
+    FontRenderContext rc = atlas.getFontRenderContext();
+    for (String entry : entries) {
+      Paragraph para = getParagraph(entry, rc);
+      for (int i = 0; i < para.layouts.length; i++) {
+        TextLayout line = para.layouts[i];
+        float baseline = y + line.getAscent();
+        if (baseline + line.getDescent() > maxY)
+          return y;
+        atlas.drawString(para.texts[i], x, Math.round(baseline), color,
+                         pixels, width, height);
+        y = baseline + line.getDescent() + line.getLeading();
+      }
+      y += paraGap;
+    }
+    return y;
+  }  // end of drawPixels()
+
+
+
+  public long getNumLaidOut()
+  // the number of entries laid out so far (the rest came from the cache)
+  {  return numLaidOut;  }
+
+  public Font getFont()
+  {  return font;  }
+
+}  // end of FeedLayout class
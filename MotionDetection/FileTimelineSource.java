@@ -0,0 +1,43 @@
+
+// FileTimelineSource.java
+
+/* A stand-in for TwitterTimelineSource which reads the timeline from a
+   local text file, one entry per line (blank lines are skipped). The file
+   is read again by every fetch(), so editing it changes the timeline, and
+   deleting it makes the fetches fail, which tests TimelineCache's retries.
+*/
+package MotionDetection;
+
+import java.io.*;
+import java.util.*;
+
+
+
+public class FileTimelineSource implements TimelineSource
+{
+  private String fnm;
+
+
+  public FileTimelineSource(String fnm)
+  {  this.fnm = fnm;  }
+
+
+
+  public List<String> fetch() throws Exception
+  {
+    List<String> entries = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new FileReader(fnm));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.trim().length() > 0)
+          entries.add(line);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return entries;
+  }  // end of fetch()
+
+}  // end of FileTimelineSource class
@@ -0,0 +1,197 @@
+
+// FramePacer.java
+
+/* Paces the ripple animation loop with a fixed simulation timestep, so that
+   the water moves at the same speed however long the rendering takes.
+
+   Each time round the loop, beginFrame() says how many simulation steps
+   are due: normally 1, but more if the last frame overran, so the
+   simulation catches up by dropping renders. No more than MAX_CATCH_UP
+   steps are run per frame; if the loop is further behind than that, the
+   extra steps are skipped (lost) so it can't fall behind without limit.
+   Falling that far behind means the loop is overloaded (e.g. a step takes
+   longer than the timestep), and catching up would only make the next
+   frame later still, so until a frame takes no longer than a step again,
+   each frame runs just 1 step, and the rest are lost. The simulation then
+   runs slower than real time, but renders every step, instead of
+   spending every frame on MAX_CATCH_UP steps and one render.
+   endFrame() records the frame's time, then parks the thread until the
+   next step is due.
+
+   The pacer records the achieved simulation and render rates (over the
+   last RATE_PERIOD), the number of overrun frames, dropped renders and lost
+   steps, and a histogram of frame times in 1 ms bins. These can be read
+   from another thread, or printed with getStats().
+*/
+package MotionDetection;
+
+import java.util.concurrent.locks.*;
+
+
+
+public class FramePacer
+{
+  private static final int MAX_CATCH_UP = 4;           // max. steps per frame
+  private static final long RATE_PERIOD = 1000000000L; // ns
+  private static final int NUM_BINS = 50;    // 1 ms bins; the last holds everything longer
+
+  private long stepNanos;     // the simulation timestep
+  private long nextTime;      // when the next step is due
+  private long frameStart;
+  private boolean overloaded = false;    // fell more than MAX_CATCH_UP steps behind
+
+  // counts
+  private volatile long numSteps = 0;
+  private volatile long numRenders = 0;
+  private volatile long numOverruns = 0;    // frames that took longer than a step
+  private volatile long numDropped = 0;     // renders dropped to catch up
+  private volatile long numLost = 0;        // steps skipped when too far behind
+  private final long[] frameHist = new long[NUM_BINS];
+  private volatile double lastFrameMs = 0;
+
+  // rates, measured every RATE_PERIOD
+  private long rateStart;
+  private long rateSteps, rateRenders;
+  private volatile double stepFps = 0;
+  private volatile double renderFps = 0;
+
+
+
+  public FramePacer(int fps)
+  {
+    stepNanos = 1000000000L / fps;
+    nextTime = System.nanoTime();
+    rateStart = nextTime;
+  }  // end of FramePacer()
+
+
+
+  public int beginFrame()
+  // the number of simulation steps to run before rendering this frame
+  {
+    frameStart = System.nanoTime();
+    long late = frameStart - nextTime;
+    long due = (late > 0) ? 1 + late/stepNanos : 1;
+    int maxSteps = overloaded ? 1 : MAX_CATCH_UP;
+    int steps;
+    if (due > maxSteps) {     // too far behind; start again from now
+      numLost += due - maxSteps;
+      steps = maxSteps;
+      nextTime = frameStart + stepNanos;
+      overloaded = true;
+    }
+    else {
+      steps = (int) due;
+      nextTime += steps * stepNanos;
+    }
+
+    numSteps += steps;
+    numDropped += steps - 1;
+    rateSteps += steps;
+    return steps;
+  }  // end of beginFrame()
+
+
+
+  public boolean endFrame()
+  /* Record the time taken since beginFrame(), then wait until the next step
+     is due. Returns false if the thread was interrupted. */
+  {
+    long now = System.nanoTime();
+    long frameTime = now - frameStart;
+    lastFrameMs = frameTime / 1000000.0;
+    if (frameTime > stepNanos)
+      numOverruns++;
+    else
+      overloaded = false;     // keeping up again
+    int bin = (int) Math.min(frameTime / 1000000L, NUM_BINS - 1);
+    synchronized (frameHist) {
+      frameHist[bin]++;
+    }
+    numRenders++;
+    rateRenders++;
+
+    if (now - rateStart >= RATE_PERIOD) {
+      stepFps = rateSteps * 1000000000.0 / (now - rateStart);
+      renderFps = rateRenders * 1000000000.0 / (now - rateStart);
+      rateStart = now;
+      rateSteps = 0;
+      rateRenders = 0;
+    }
+
+    long wait;
+    while ((wait = nextTime - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(wait);    // may return early
+      if (Thread.interrupted())
+        return false;
+    }
+    return true;
+  }  // end of endFrame()
+
+
+
+  public long[] getFrameHistogram()
+  // a copy of the frame time counts, in 1 ms bins
+  {
+    synchronized (frameHist) {
+      return frameHist.clone();
+    }
+  }  // end of getFrameHistogram()
+
+
+
+  public int getFramePercentile(double pc)
+  // the frame time (ms) which pc% of the frames took no longer than
+  {
+    long[] hist = getFrameHistogram();
+    long total = 0;
+    for (int i = 0; i < hist.length; i++)
+      total += hist[i];
+    long limit = (long) Math.ceil(total * pc / 100.0);
+    long count = 0;
+    for (int i = 0; i < hist.length; i++) {
+      count += hist[i];
+      if ((count >= limit) && (count > 0))
+        return i + 1;
+    }
+    return 0;
+  }  // end of getFramePercentile()
+
+
+
+  public String getStats()
+  {
+    return String.format(
+         "%.1f steps/s, %.1f renders/s; %d overruns, %d dropped renders, " +
+         "%d lost steps; frame times: median <%d ms, 99%% <%d ms",
+         stepFps, renderFps, numOverruns, numDropped, numLost,
+         getFramePercentile(50), getFramePercentile(99));
+  }  // end of getStats()
+
+
+
+  public double getStepFps()
+  {  return stepFps;  }
+
+  public double getRenderFps()
+  {  return renderFps;  }
+
+  public double getLastFrameMs()
+  {  return lastFrameMs;  }
+
+  public long getNumSteps()
+  {  return numSteps;  }
+
+  public long getNumRenders()
+  {  return numRenders;  }
+
+  public long getNumOverruns()
+  {  return numOverruns;  }
+
+  public long getNumDropped()
+  {  return numDropped;  }
+
+  public long getNumLost()
+  {  return numLost;  }
+
+}  // end of FramePacer class
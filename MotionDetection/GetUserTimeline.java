@@ -1,57 +1,77 @@
 package MotionDetection;
-import twitter4j.Status;
-import twitter4j.Twitter;
-import twitter4j.TwitterException;
-import twitter4j.TwitterFactory;
 import java.util.*;
-import java.io.*;
 import java.util.List;
 
 
 public class GetUserTimeline {
     /**
-     * Usage: java twitter4j.examples.timeline.GetUserTimeline
+     * Usage: java MotionDetection.GetUserTimeline [-file fnm]
+     *
+     * Prints the timeline, fetched in the background by a TimelineCache.
+     * With -file, the timeline is read from a local file instead of Twitter.
      *
      * @param args String[]
      */
-        Twitter twitter = new TwitterFactory().getInstance();
-    public static String feed="";
-   public static void main(String[] args) {
-        // gets Twitter instance with default credentials
-       GetUserTimeline g = new GetUserTimeline();
-       String str = g.getFeed();
-      // System.out.println(str);
-       
+    static final long TTL = 60000;      // ms before the cached timeline is refreshed
+
+    TimelineSource source;
+    String feed = "";                                // the last feed fetched
+    List<String> entries = new ArrayList<String>();   // the last entries fetched
+
+   public static void main(String[] args) throws InterruptedException {
+       TimelineSource src;
+       if (args.length == 2 && args[0].equals("-file")) {
+           src = new FileTimelineSource(args[1]);
+       } else {
+           src = new TwitterTimelineSource();
+       }
+       TimelineCache cache = new TimelineCache(src, TTL);
+       TimelineCache.Snapshot snap = cache.getSnapshot();   // starts the first fetch
+       while (snap.getFetchTime() == 0 && snap.getError() == null) {
+           Thread.sleep(100);
+           snap = cache.getSnapshot();
+       }
+       if (snap.getError() != null) {
+           System.out.println("Failed to get timeline: " + snap.getError());
+       }
+       for (String entry : snap.getEntries()) {
+           System.out.println(entry);
+       }
+       cache.shutdown();
    }
+
+    public GetUserTimeline()
+    {
+        this(new TwitterTimelineSource());
+    }
+
+    public GetUserTimeline(TimelineSource source)
+    {
+        this.source = source;
+    }
+
+    /* Fetch the timeline now, on the calling thread, as one string. If it
+       can't be fetched, the last feed is returned; TimelineCache should be
+       used instead where blocking matters. */
     public String getFeed()
     {
-     
+        StringBuilder sb = new StringBuilder();
+        for (String entry : getEntries()) {
+            sb.append(entry);
+        }
+        feed = sb.toString();
+        return feed;
+    }
+
+    /* Fetch the timeline now as a list of entries, newest first; the last
+       list is returned if it can't be fetched. */
+    public List<String> getEntries()
+    {
        try {
-            List<Status> statuses;
-            String user="";
-           // if (args.length == 0) {
-            
-            Scanner s = new Scanner(new File("twitter_user.txt"));
-            
-                String temp = s.nextLine();
-                char first = temp.charAt(0);
-                for(int i=1;i<temp.length();i++)
-                    user+=temp.charAt(i);
-                statuses = twitter.getUserTimeline(user);
-            
-               // user = twitter.verifyCredentials().getScreenName();
-               // statuses = twitter.getUserTimeline();
-            
-          //  System.out.println("Showing @" + user + "'s user timeline.");
-            for (Status status : statuses) {
-               feed+= first + status.getUser().getScreenName() + " - " + status.getText();
-            }
-           // System.out.print(feed);
+            entries = source.fetch();
         } catch (Exception te) {
-            te.printStackTrace();
-            //System.out.println("Failed to get timeline: " + te.getMessage());
-            System.exit(-1);
+            System.out.println("Failed to get timeline: " + te);
         }
-       return feed;
+       return entries;
     }
-}
\ No newline at end of file
+}
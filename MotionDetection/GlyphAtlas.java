@@ -0,0 +1,247 @@
+
+// GlyphAtlas.java
+
+/* A cache of rasterized glyphs for one font, so that text can be drawn
+   into a pixel array by copying (blending) each glyph, instead of having
+   Java 2D rasterize every glyph again each time the overlay is redrawn.
+
+   The atlas is a byte array of NUM_CELLS cells, each big enough for any
+   glyph of the font (its max advance by its ascent + descent, plus PAD
+   pixels around). A cell holds a glyph's antialiased coverage (0-255),
+   drawn in white on black into a gray image, and the box around its
+   non-zero pixels is recorded so only that part is blended. The glyphs
+   are keyed by code point in an access-ordered map, so when all the cells
+   are in use the least recently used glyph is evicted, and its cell
+   reused. The printable ASCII glyphs are drawn when the atlas is made.
+
+   drawString() blends the glyphs of a string into an ARGB pixel array in a
+   single color, moving along by each glyph's advance. There is no kerning
+   or ligatures, which matches the widths that LineBreakMeasurer uses for a
+   plain font. The glyphs are measured and drawn with antialiasing and
+   integer metrics, the same as a Graphics2D with only text antialiasing
+   switched on, so the result is the same as that Graphics2D's drawString();
+   it would not be if fractional metrics were switched on there.
+
+   There is one atlas per font (name, style and size), from forFont();
+   drawString() is synchronized, so it can be shared between threads.
+*/
+package MotionDetection;
+
+import java.awt.*;
+import java.awt.font.*;
+import java.awt.image.*;
+import java.util.*;
+
+
+
+public class GlyphAtlas
+{
+  private static final int NUM_CELLS = 256;
+  private static final int PAD = 2;     // pixels around each glyph in its cell
+
+  private static HashMap<Font, GlyphAtlas> atlases = new HashMap<Font, GlyphAtlas>();
+
+
+  private static class Glyph
+  {
+    int cell;
+    float advance;
+    int x0, y0, x1, y1;    // the box in the cell with some coverage
+  }
+
+
+  private Font font;
+  private FontRenderContext frc;
+  private int ascent;
+  private int cellWidth, cellHeight, cellSize;
+  private byte[] cells;       // NUM_CELLS cells, one after another
+  private int numUsed = 0;    // cells given out so far
+
+  private LinkedHashMap<Integer, Glyph> glyphs =
+              new LinkedHashMap<Integer, Glyph>(NUM_CELLS, 0.75f, true);  // access order
+  private long numRendered = 0;    // glyphs rasterized
+  private long numEvicted = 0;
+
+  // for rasterizing a glyph
+  private BufferedImage cellIm;
+  private Graphics2D cellG;
+
+
+
+  public static synchronized GlyphAtlas forFont(Font font)
+  {
+    GlyphAtlas atlas = atlases.get(font);
+    if (atlas == null) {
+      atlas = new GlyphAtlas(font);
+      atlases.put(font, atlas);
+    }
+    return atlas;
+  }  // end of forFont()
+
+
+
+  private GlyphAtlas(Font font)
+  {
+    this.font = font;
+    frc = new FontRenderContext(null, true, false);    // antialiased
+
+    LineMetrics lm = font.getLineMetrics("Xg", frc);
+    ascent = (int) Math.ceil(lm.getAscent());
+    int descent = (int) Math.ceil(lm.getDescent());
+    int maxAdvance = (int) Math.ceil(font.getMaxCharBounds(frc).getWidth());
+    cellWidth = maxAdvance + 2*PAD;
+    cellHeight = ascent + descent + 2*PAD;
+    cellSize = cellWidth * cellHeight;
+    cells = new byte[NUM_CELLS * cellSize];
+
+    cellIm = new BufferedImage(cellWidth, cellHeight, BufferedImage.TYPE_BYTE_GRAY);
+    cellG = cellIm.createGraphics();
+    cellG.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                           RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    cellG.setFont(font);
+
+    for (int cp = 32; cp < 127; cp++)    // printable ASCII
+      getGlyph(cp);
+  }  // end of GlyphAtlas()
+
+
+
+  private Glyph getGlyph(int cp)
+  // the glyph for code point cp, rasterizing it into a cell if necessary
+  {
+    Glyph g = glyphs.get(cp);
+    if (g != null)
+      return g;
+
+    if (numUsed < NUM_CELLS) {
+      g = new Glyph();
+      g.cell = numUsed++;
+    }
+    else {     // reuse the least recently used glyph's cell
+      Iterator<Map.Entry<Integer, Glyph>> it = glyphs.entrySet().iterator();
+      g = it.next().getValue();
+      it.remove();
+      numEvicted++;
+    }
+    rasterize(cp, g);
+    glyphs.put(cp, g);
+    return g;
+  }  // end of getGlyph()
+
+
+
+  private void rasterize(int cp, Glyph g)
+  {
+    String s = new String(Character.toChars(cp));
+    g.advance = (float) font.getStringBounds(s, frc).getWidth();
+
+    cellG.setColor(Color.BLACK);
+    cellG.fillRect(0, 0, cellWidth, cellHeight);
+    cellG.setColor(Color.WHITE);
+    cellG.drawString(s, PAD, PAD + ascent);
+    byte[] gray = ((DataBufferByte) cellIm.getRaster().getDataBuffer()).getData();
+    System.arraycopy(gray, 0, cells, g.cell * cellSize, cellSize);
+    numRendered++;
+
+    // the box around the glyph's pixels, so blit() can skip the empty rest
+    g.x0 = cellWidth;
+    g.y0 = cellHeight;
+    g.x1 = 0;
+    g.y1 = 0;
+    for (int y = 0; y < cellHeight; y++) {
+      for (int x = 0; x < cellWidth; x++) {
+        if (gray[y * cellWidth + x] != 0) {
+          g.x0 = Math.min(g.x0, x);
+          g.x1 = Math.max(g.x1, x + 1);
+          g.y0 = Math.min(g.y0, y);
+          g.y1 = Math.max(g.y1, y + 1);
+        }
+      }
+    }
+  }  // end of rasterize()
+
+
+
+  public synchronized float drawString(String s, float x, int baseline, int color,
+                          int[] pixels, int width, int height)
+  /* blend s, in the RGB color, into the width*height ARGB pixels, starting
+     at x on the baseline; returns the x after the last glyph */
+  {
+    int r = (color >> 16) & 0xFF;
+    int gr = (color >> 8) & 0xFF;
+    int b = color & 0xFF;
+    int top = baseline - ascent - PAD;
+
+    int i = 0;
+    while (i < s.length()) {
+      int cp = s.codePointAt(i);
+      i += Character.charCount(cp);
+      Glyph g = getGlyph(cp);
+      blit(g, Math.round(x) - PAD, top, r, gr, b, pixels, width, height);
+      x += g.advance;
+    }
+    return x;
+  }  // end of drawString()
+
+
+
+  private void blit(Glyph glyph, int x0, int y0, int r, int g, int b,
+                    int[] pixels, int width, int height)
+  /* blend a glyph's coverage into the pixels, with the top-left of its cell
+     at (x0,y0) */
+  {
+    // the part of the glyph's box inside the image
+    int cx0 = Math.max(glyph.x0, -x0);
+    int cy0 = Math.max(glyph.y0, -y0);
+    int cx1 = Math.min(glyph.x1, width - x0);
+    int cy1 = Math.min(glyph.y1, height - y0);
+
+    for (int cy = cy0; cy < cy1; cy++) {
+      int src = glyph.cell * cellSize + cy * cellWidth + cx0;
+      int dst = (y0 + cy) * width + x0 + cx0;
+      for (int cx = cx0; cx < cx1; cx++, src++, dst++) {
+        int a = cells[src] & 0xFF;
+        if (a == 0)
+          continue;
+        int p = pixels[dst];
+        if (a == 255)
+          pixels[dst] = (p & 0xFF000000) | (r << 16) | (g << 8) | b;
+        else {
+          int na = 255 - a;
+          int pr = div255(((p >> 16) & 0xFF) * na + r * a);
+          int pg = div255(((p >> 8) & 0xFF) * na + g * a);
+          int pb = div255((p & 0xFF) * na + b * a);
+          pixels[dst] = (p & 0xFF000000) | (pr << 16) | (pg << 8) | pb;
+        }
+      }
+    }
+  }  // end of blit()
+
+
+
+  private static int div255(int v)
+  // v/255, rounded, for v in 0..255*255, without dividing
+  {
+    v += 128;
+    return (v + (v >> 8)) >> 8;
+  }
+
+
+
+  public FontRenderContext getFontRenderContext()
+  // the context the glyphs were measured in, for laying out text to draw with them
+  {  return frc;  }
+
+  public Font getFont()
+  {  return font;  }
+
+  public int getNumGlyphs()
+  {  return glyphs.size();  }
+
+  public long getNumRendered()
+  {  return numRendered;  }
+
+  public long getNumEvicted()
+  {  return numEvicted;  }
+
+}  // end of GlyphAtlas class
@@ -0,0 +1,108 @@
+
+// LiveOverlay.java
+
+/* Draws the timeline over the background image straight into the ripple
+   texture, instead of TextOverlay writing ot.jpg for the applet to read
+   back in (which needed a JPEG encode and decode, and a restart to show a
+   new feed).
+
+   Every CHECK_PERIOD ms, a daemon thread gets the latest snapshot from a
+   TimelineCache (which also keeps the cache refreshed). If its version has
+   changed, the background is drawn into the LiveTexture's write buffer,
+   through the BufferedImage that shares its pixels, the feed text is
+   blended in from a GlyphAtlas, and the buffer is published. The ripple
+   simulation picks up the new texture at the start of its next frame,
+   without ever waiting. A snapshot that fails to draw is reported and
+   skipped, so the updates carry on with the next one.
+*/
+package MotionDetection;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.concurrent.*;
+
+
+
+public class LiveOverlay
+{
+  private static final long CHECK_PERIOD = 1000;    // ms
+
+  private BufferedImage background;
+  private TimelineCache cache;
+  private LiveTexture texture;
+  private FeedLayout layout;        // keeps the lines of entries already drawn
+  private int drawnVersion = -1;     // of the snapshot in the texture
+  private ScheduledExecutorService executor;
+
+
+
+  public LiveOverlay(BufferedImage background, int[] initial, TimelineCache cache)
+  /* the texture is the size of the background, and starts with the
+     pixels in initial[] */
+  {
+    this.background = background;
+    this.cache = cache;
+    texture = new LiveTexture(initial, background.getWidth(), background.getHeight());
+    layout = TextOverlay.makeLayout(background.getWidth());
+  }  // end of LiveOverlay()
+
+
+
+  public void start()
+  {
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "overlay");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    executor.scheduleWithFixedDelay( new Runnable() {
+      public void run()
+      {  update();  }
+    }, 0, CHECK_PERIOD, TimeUnit.MILLISECONDS);
+  }  // end of start()
+
+
+
+  private void update()
+  /* redraw the texture if there's a new snapshot. An exception thrown
+     out of here would cancel the scheduled task, and the overlay would
+     never change again, so it's reported instead, and that snapshot is
+     skipped (the texture keeps showing the last one drawn) */
+  {
+    TimelineCache.Snapshot snap = cache.getSnapshot();
+    if (snap.getVersion() == drawnVersion)
+      return;
+
+    try {
+      Graphics2D g2d = texture.getWriteImage().createGraphics();
+      g2d.drawImage(background, 0, 0, null);
+      g2d.dispose();
+      TextOverlay.drawFeedPixels(texture.getWriteBuffer(), texture.getWidth(),
+                                 texture.getHeight(), layout, snap.getEntries());
+      texture.publish();
+    }
+    catch (RuntimeException e) {
+      System.out.println("Could not draw overlay: " + e);
+      e.printStackTrace();
+    }
+    drawnVersion = snap.getVersion();
+  }  // end of update()
+
+
+
+  public LiveTexture getTexture()
+  {  return texture;  }
+
+
+
+  public void stop()
+  {
+    if (executor != null)
+      executor.shutdownNow();
+    cache.shutdown();
+  }  // end of stop()
+
+}  // end of LiveOverlay class
@@ -0,0 +1,187 @@
+
+// LiveTexture.java
+
+/* The texture under the ripples, updated with webcam frames by one thread
+   (MotionPanel's detection loop), while another thread (the ripple
+   simulation) keeps reading it.
+
+   There are three width*height pixel buffers: the one being written by the
+   camera thread, the one being read by the simulation, and a spare which
+   holds the newest complete frame. publish() swaps the written buffer with
+   the spare, and update() swaps the read buffer with the spare if it holds
+   a new frame. Both swaps are a single AtomicInteger.getAndSet() of the
+   spare's index (plus a 'fresh' bit), so neither thread ever waits for the
+   other, and no pixels are copied between buffers.
+
+   copyFrame() scales a BGR camera image into the write buffer (nearest
+   neighbour, using a table of source columns), and publishes it.
+
+   getWriteImage() returns the write buffer as an ARGB BufferedImage which
+   shares its pixels, so the producer can draw the next texture with
+   Java 2D (as LiveOverlay does) and then publish() it.
+*/
+package MotionDetection;
+
+import java.awt.image.*;
+import java.nio.*;
+import java.util.concurrent.atomic.*;
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class LiveTexture
+{
+  private static final int FRESH = 4;       // set in spare when it holds a new frame
+  private static final int INDEX_MASK = 3;
+
+  private int width, height;
+  private int[][] buffers = new int[3][];
+  private int writeIdx = 0;     // used only by the producer (camera) thread
+  private int readIdx = 1;      // used only by the simulation thread
+  private final AtomicInteger spare = new AtomicInteger(2);
+  private BufferedImage[] images = new BufferedImage[3];   // made by getWriteImage()
+
+  private volatile long numPublished = 0;
+  private long numUsed = 0;
+
+  // for copyFrame()
+  private int camWidth = -1, camHeight = -1, camChannels = -1;
+  private int[] srcCols;      // byte offset of each texture column in a camera row
+  private int[] srcRows;      // camera row of each texture row
+  private byte[] rowBytes;
+
+
+
+  public LiveTexture(int[] initial, int width, int height)
+  // all the buffers start as a copy of initial[] (e.g. the still image)
+  {
+    this.width = width;
+    this.height = height;
+    for (int i = 0; i < buffers.length; i++)
+      buffers[i] = initial.clone();
+  }  // end of LiveTexture()
+
+
+
+  // ---------------- producer thread ----------------------
+
+
+  public int[] getWriteBuffer()
+  // the buffer to fill with the next frame, before calling publish()
+  {  return buffers[writeIdx];  }
+
+
+
+  public BufferedImage getWriteImage()
+  // an image drawing into the write buffer
+  {
+    if (images[writeIdx] == null) {
+      DirectColorModel cm = new DirectColorModel(32, 0xFF0000, 0xFF00, 0xFF, 0xFF000000);
+      DataBufferInt db = new DataBufferInt(buffers[writeIdx], buffers[writeIdx].length);
+      WritableRaster raster = Raster.createPackedRaster(db, width, height, width,
+                                                   cm.getMasks(), null);
+      images[writeIdx] = new BufferedImage(cm, raster, false, null);
+    }
+    return images[writeIdx];
+  }  // end of getWriteImage()
+
+
+
+  public void publish()
+  // make the write buffer the newest frame, and get another to write into
+  {
+    writeIdx = spare.getAndSet(writeIdx | FRESH) & INDEX_MASK;
+    numPublished++;
+  }  // end of publish()
+
+
+
+  public void copyFrame(IplImage im)
+  // scale a BGR (or gray) camera image into the write buffer, and publish it
+  {
+    if ((im.width() != camWidth) || (im.height() != camHeight) ||
+        (im.nChannels() != camChannels))
+      makeTables(im.width(), im.height(), im.nChannels());
+
+    int[] pixels = buffers[writeIdx];
+    int step = im.widthStep();
+    ByteBuffer bb = im.getByteBuffer();
+    int prevRow = -1;
+    for (int y = 0; y < height; y++) {
+      int i = y * width;
+      if (srcRows[y] == prevRow) {     // same camera row as the last line
+        System.arraycopy(pixels, i - width, pixels, i, width);
+        continue;
+      }
+      prevRow = srcRows[y];
+      bb.position(prevRow * step);
+      bb.get(rowBytes, 0, rowBytes.length);
+      if (camChannels >= 3) {
+        for (int x = 0; x < width; x++) {
+          int c = srcCols[x];
+          pixels[i++] = 0xFF000000 | ((rowBytes[c+2] & 0xFF) << 16) |
+                            ((rowBytes[c+1] & 0xFF) << 8) | (rowBytes[c] & 0xFF);
+        }
+      }
+      else {
+        for (int x = 0; x < width; x++) {
+          int g = rowBytes[srcCols[x]] & 0xFF;
+          pixels[i++] = 0xFF000000 | (g << 16) | (g << 8) | g;
+        }
+      }
+    }
+    publish();
+  }  // end of copyFrame()
+
+
+
+  private void makeTables(int w, int h, int channels)
+  {
+    camWidth = w;
+    camHeight = h;
+    camChannels = channels;
+    srcCols = new int[width];
+    for (int x = 0; x < width; x++)
+      srcCols[x] = ((x * w) / width) * channels;
+    srcRows = new int[height];
+    for (int y = 0; y < height; y++)
+      srcRows[y] = (y * h) / height;
+    rowBytes = new byte[w * channels];
+  }  // end of makeTables()
+
+
+
+  // ---------------- simulation thread ----------------------
+
+
+  public boolean update()
+  // make the newest frame the read buffer; returns false if there isn't one
+  {
+    if ((spare.get() & FRESH) == 0)
+      return false;
+    readIdx = spare.getAndSet(readIdx) & INDEX_MASK;
+    numUsed++;
+    return true;
+  }  // end of update()
+
+
+
+  public int[] getReadBuffer()
+  {  return buffers[readIdx];  }
+
+
+  public long getNumPublished()
+  {  return numPublished;  }
+
+  public long getNumUsed()
+  // frames used by update(); the others were replaced before being used
+  {  return numUsed;  }
+
+  public int getWidth()
+  {  return width;  }
+
+  public int getHeight()
+  {  return height;  }
+
+}  // end of LiveTexture class
@@ -32,11 +32,13 @@ public class MotionPanel extends JPanel implements Runnable
 {
   /* dimensions of each image; the panel is the same size as the image */
    // Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-  private static final int WIDTH = 640;  
-  private static final int HEIGHT = 480;
+  static final int WIDTH = 640;    // of a camera frame, used by UniversityOfBedfordshire
+  static final int HEIGHT = 480;
  
-  public static int gCogx=0;
-  public static int gCogy=0;
+  public static volatile int gCogx=0;
+  public static volatile int gCogy=0;
+  public static final CogQueue cogQueue = new CogQueue(64);   // timestamped COGs for the ripples
+  public static volatile LiveTexture liveTexture = null;   // the ripples' texture, if it's the camera
   //public static Water water = new Water();
   private static final int DELAY = 100;  // time (ms) between redraws of the panel
 
@@ -128,12 +130,17 @@ public int getCogy()
 
       snapIm = picGrab(grabber, CAMERA_ID); 
 
+      LiveTexture lt = liveTexture;
+      if ((lt != null) && (snapIm != null))
+        lt.copyFrame(snapIm);    // never waits for the ripples
+
       md.calcMove(snapIm);    // update detector with new image
       if ((pt = md.getCOG()) != null) {    // get new COG
         prevCogPoint = cogPoint; 
         cogPoint = pt;
         gCogx = pt.x;
         gCogy = pt.y;
+        cogQueue.offer(pt.x, pt.y, System.nanoTime());
        // water.disturb(gCogx,gCogy);
        // System.out.println("this is gCogx"+gCogx);
         reportCOGChanges(cogPoint, prevCogPoint);
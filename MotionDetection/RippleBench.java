@@ -0,0 +1,209 @@
+
+// RippleBench.java
+
+/* Runs RippleSimulator offscreen, without the applet or a camera, at several
+   image sizes and with several scripted disturbance patterns:
+     * still  - no disturbances (the cost of an idle surface)
+     * rain   - a drop at a random place every 5 frames
+     * trail  - a COG moving round a circle, disturbed every 4 pixels
+                along its path, as CogTrail does
+     * storm  - 8 drops at random places every frame
+   Each run does some warm-up frames (so the JIT has compiled the kernels),
+   then times the rest, and reports the time per frame, the frame rate, the
+   time per image pixel, the average number of height field pixels
+   simulated per frame, and the bytes allocated per frame and per second.
+
+   The allocations are counted over all threads (including the band
+   threads) with com.sun.management.ThreadMXBean, if the JVM has it. They
+   should be close to 0; anything else is garbage made by the frame loop.
+
+   Usage:
+     java MotionDetection.RippleBench [-frames n] [-scale n] [-threads n]
+                                      [-full] [-branchfree]
+   (default: 300 frames, scale 1, one thread per processor, dirty regions)
+*/
+package MotionDetection;
+
+import java.lang.management.*;
+import java.util.*;
+
+
+
+public class RippleBench
+{
+  private static final int[][] SIZES = { {640, 480}, {1280, 720}, {1920, 1080} };
+  private static final String[] PATTERNS = { "still", "rain", "trail", "storm" };
+
+  private static final int WARMUP_FRAMES = 200;
+  private static final int RAIN_PERIOD = 5;       // frames between drops
+  private static final int STORM_DROPS = 8;       // drops per frame
+  private static final int TRAIL_SPACING = 4;     // pixels between disturbances
+  private static final double TRAIL_SPEED = 6;    // pixels per frame
+
+  // settings, from the command line
+  private static int numFrames = 300;
+  private static int scale = 1;
+  private static int numThreads = Runtime.getRuntime().availableProcessors();
+  private static boolean dirtyRegions = true;
+  private static boolean branchFree = false;
+
+  private static ThreadMXBean threadBean;
+  private static boolean canCountAllocs = false;
+
+
+
+  public static void main(String[] args)
+  {
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-frames") && (i < args.length-1))
+        numFrames = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-scale") && (i < args.length-1))
+        scale = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-threads") && (i < args.length-1))
+        numThreads = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-full"))
+        dirtyRegions = false;
+      else if (args[i].equals("-branchfree"))
+        branchFree = true;
+      else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+
+    threadBean = ManagementFactory.getThreadMXBean();
+    if (threadBean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean tb = (com.sun.management.ThreadMXBean) threadBean;
+      if (tb.isThreadAllocatedMemorySupported()) {
+        tb.setThreadAllocatedMemoryEnabled(true);
+        canCountAllocs = true;
+      }
+    }
+
+    System.out.println(numFrames + " frames, scale " + scale + ", " + numThreads +
+               " thread(s), " + (dirtyRegions ? "dirty regions" : "whole surface") +
+               ", " + (branchFree ? "branch-free" : "original") + " kernel");
+    System.out.println("size       pattern   ms/frame        fps  ns/pixel  map px/frame   bytes/frame     MB/s");
+    for (int[] size : SIZES)
+      for (String pattern : PATTERNS)
+        run(size[0], size[1], pattern);
+  }  // end of main()
+
+
+
+  private static void run(int width, int height, String pattern)
+  {
+    Random rand = new Random(42);
+    int[] texture = new int[width * height];
+    for (int i = 0; i < texture.length; i++)
+      texture[i] = 0xFF000000 | rand.nextInt(0x1000000);
+
+    RippleSimulator sim = new RippleSimulator(texture, width, height, numThreads);
+    sim.setScale(scale);
+    sim.setDirtyRegions(dirtyRegions);
+    sim.setBranchFree(branchFree);
+    Script script = new Script(pattern, width, height);
+
+    for (int f = 0; f < WARMUP_FRAMES; f++) {
+      script.disturb(sim, f);
+      sim.newframe();
+    }
+
+    long mapPixels = 0;
+    long startAlloc = allocatedBytes();
+    long startTime = System.nanoTime();
+    for (int f = WARMUP_FRAMES; f < WARMUP_FRAMES + numFrames; f++) {
+      script.disturb(sim, f);
+      sim.newframe();
+      mapPixels += sim.getPixelsProcessed();
+    }
+    long nanos = System.nanoTime() - startTime;
+    long allocs = allocatedBytes() - startAlloc;
+    sim.shutdown();
+
+    double msPerFrame = nanos / (1000000.0 * numFrames);
+    double nsPerPixel = ((double) nanos) / numFrames / (width * height);
+    String allocStr = "n/a";
+    String allocRate = "n/a";
+    if (canCountAllocs) {
+      allocStr = String.format("%.1f", ((double) allocs) / numFrames);
+      allocRate = String.format("%.2f", allocs / (nanos / 1000.0));    // bytes/us = MB/s
+    }
+    System.out.printf("%-10s %-7s %10.3f %10.0f %9.3f %13d %13s %8s%n",
+            width + "x" + height, pattern, msPerFrame, 1000.0 / msPerFrame,
+            nsPerPixel, mapPixels / numFrames, allocStr, allocRate);
+  }  // end of run()
+
+
+
+  private static long allocatedBytes()
+  // the bytes allocated so far by all live threads, or 0 if they can't be counted
+  {
+    if (!canCountAllocs)
+      return 0;
+    com.sun.management.ThreadMXBean tb = (com.sun.management.ThreadMXBean) threadBean;
+    long total = 0;
+    for (long bytes : tb.getThreadAllocatedBytes(tb.getAllThreadIds()))
+      if (bytes > 0)
+        total += bytes;
+    return total;
+  }  // end of allocatedBytes()
+
+
+
+  // ---------------- disturbance scripts ----------------------
+
+
+  private static class Script
+  // the disturbances for each frame of a pattern; the same every run
+  {
+    private String pattern;
+    private int width, height;
+    private Random rand = new Random(7);
+
+    // the trail's circle, and its last position
+    private double cx, cy, radius;
+    private double lastX, lastY;
+
+
+    public Script(String pattern, int width, int height)
+    {
+      this.pattern = pattern;
+      this.width = width;
+      this.height = height;
+      cx = width / 2.0;
+      cy = height / 2.0;
+      radius = Math.min(width, height) / 3.0;
+      lastX = cx + radius;
+      lastY = cy;
+    }
+
+
+    public void disturb(RippleSimulator sim, int frame)
+    {
+      if (pattern.equals("rain")) {
+        if (frame % RAIN_PERIOD == 0)
+          sim.disturb(rand.nextInt(width), rand.nextInt(height));
+      }
+      else if (pattern.equals("storm")) {
+        for (int i = 0; i < STORM_DROPS; i++)
+          sim.disturb(rand.nextInt(width), rand.nextInt(height));
+      }
+      else if (pattern.equals("trail")) {
+        double angle = (frame * TRAIL_SPEED) / radius;
+        double x = cx + radius * Math.cos(angle);
+        double y = cy + radius * Math.sin(angle);
+        double dist = Math.sqrt((x - lastX) * (x - lastX) + (y - lastY) * (y - lastY));
+        int steps = Math.max(1, (int) Math.ceil(dist / TRAIL_SPACING));
+        for (int i = 1; i <= steps; i++)
+          sim.disturb((int) Math.round(lastX + (x - lastX) * i / steps),
+                      (int) Math.round(lastY + (y - lastY) * i / steps));
+        lastX = x;
+        lastY = y;
+      }
+      // "still" has no disturbances
+    }  // end of disturb()
+
+  }  // end of Script class
+
+}  // end of RippleBench class
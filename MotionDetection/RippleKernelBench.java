@@ -0,0 +1,110 @@
+
+// RippleKernelBench.java
+
+/* Compares RippleSimulator's two kernels (the original one, and the
+   branch-free one) on one thread, with the same random texture and the
+   same disturbances.
+
+   After each frame, the two ripple[] images are compared, and the first
+   difference (if any) is reported. The kernels are then timed separately,
+   after some warm-up frames so the JIT has compiled them, and the
+   average time per frame is printed.
+
+   Usage:
+     java MotionDetection.RippleKernelBench [width height [frames]]
+   (default: 1920 1080 300)
+*/
+package MotionDetection;
+
+import java.util.*;
+
+
+
+public class RippleKernelBench
+{
+  private static final int WARMUP_FRAMES = 200;
+  private static final int DISTURB_PERIOD = 5;    // frames between disturbances
+
+
+  public static void main(String[] args)
+  {
+    int width = 1920;
+    int height = 1080;
+    int numFrames = 300;
+    if (args.length >= 2) {
+      width = Integer.parseInt(args[0]);
+      height = Integer.parseInt(args[1]);
+    }
+    if (args.length >= 3)
+      numFrames = Integer.parseInt(args[2]);
+
+    Random rand = new Random(42);
+    int[] texture = new int[width * height];
+    for (int i = 0; i < texture.length; i++)
+      texture[i] = 0xFF000000 | rand.nextInt(0x1000000);
+
+    if (!checkSame(texture, width, height, numFrames))
+      return;
+
+    System.out.println("Timing " + width + "x" + height + ", " + numFrames + " frames");
+    double origMs = timeKernel(texture, width, height, numFrames, false);
+    double freeMs = timeKernel(texture, width, height, numFrames, true);
+    System.out.printf("  original:    %.2f ms/frame%n", origMs);
+    System.out.printf("  branch-free: %.2f ms/frame (%.2fx)%n", freeMs, origMs/freeMs);
+  }  // end of main()
+
+
+
+  private static boolean checkSame(int[] texture, int width, int height, int numFrames)
+  {
+    RippleSimulator orig = new RippleSimulator(texture, width, height, 1);
+    orig.setBranchFree(false);
+    RippleSimulator free = new RippleSimulator(texture, width, height, 1);
+    free.setBranchFree(true);
+
+    Random rand = new Random(7);
+    for (int f = 0; f < numFrames; f++) {
+      if (f % DISTURB_PERIOD == 0) {
+        int x = rand.nextInt(width);
+        int y = rand.nextInt(height);
+        orig.disturb(x, y);
+        free.disturb(x, y);
+      }
+      orig.newframe();
+      free.newframe();
+      int[] ro = orig.getRipple();
+      int[] rf = free.getRipple();
+      for (int i = 0; i < ro.length; i++) {
+        if (ro[i] != rf[i]) {
+          System.out.println("Kernels differ in frame " + f + " at (" +
+                          (i % width) + ", " + (i / width) + ")");
+          return false;
+        }
+      }
+    }
+    System.out.println("Kernels give the same output for " + numFrames + " frames");
+    return true;
+  }  // end of checkSame()
+
+
+
+  private static double timeKernel(int[] texture, int width, int height,
+                                            int numFrames, boolean branchFree)
+  // average ms per frame, after warm-up
+  {
+    RippleSimulator sim = new RippleSimulator(texture, width, height, 1);
+    sim.setBranchFree(branchFree);
+    Random rand = new Random(7);
+
+    long startTime = 0;
+    for (int f = 0; f < WARMUP_FRAMES + numFrames; f++) {
+      if (f == WARMUP_FRAMES)
+        startTime = System.nanoTime();
+      if (f % DISTURB_PERIOD == 0)
+        sim.disturb(rand.nextInt(width), rand.nextInt(height));
+      sim.newframe();
+    }
+    return (System.nanoTime() - startTime) / (1000000.0 * numFrames);
+  }  // end of timeKernel()
+
+}  // end of RippleKernelBench class
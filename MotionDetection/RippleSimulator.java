@@ -0,0 +1,829 @@
+
+// RippleSimulator.java
+
+/* The water ripple simulation used by UniversityOfBedfordshire, moved out of
+   the applet so that it can be run in parallel.
+
+   The surface is a height field stored in ripplemap[], which holds two maps
+   (the previous and current heights), each with an unused row above and
+   below so the neighbours of the first and last rows can be read without
+   tests. oldind and newind are the offsets of the two maps' first rows, and
+   are swapped by every newframe() call.
+
+   A frame calculates each pixel's new height from its four neighbours in
+   the old map and its own height in the new map (two frames ago), and then
+   uses the height to offset the pixel's position in texture[], writing the
+   result into ripple[].
+
+   Since each pixel only writes its own new height and ripple[] pixel, and
+   only reads the old map (which isn't changed in this frame) and its own
+   entries, the rows can be split into bands which are processed in parallel,
+   including the rows at the band edges. newframe() waits for all the bands
+   to finish (a per-frame barrier) before returning, so the maps are never
+   swapped while a band is still reading them.
+
+   Most of the surface is flat most of the time, so only the 'active regions'
+   are simulated. A region is a box which starts around a disturb() point, and
+   grows by one pixel on every side each frame, which is as fast as a wave
+   can spread; this means that everything outside the regions stays exactly
+   flat, and ripple[] there is just a copy of texture[]. (The left and right
+   neighbours of the first and last pixels in a row are in the rows above and
+   below, so a region touching the left or right edge is widened to the full
+   width.) Overlapping regions are merged, so no pixel is processed twice in
+   a frame.
+
+   Each region records the biggest height in it for the frame. When this has
+   been at most retireHeight for two frames in a row (so both maps are nearly
+   flat) the region is retired: its heights are set to 0, and the texture is
+   copied into ripple[] for its pixels. An idle surface has no regions, and
+   newframe() does almost nothing. setDirtyRegions(false) goes back to
+   simulating the whole surface every frame.
+
+   The height field can be made smaller than the image, by a scale of 2 or 4
+   (see setScale()), which makes the height calculations 4 or 16 times
+   cheaper. The scale can be changed while the water is moving: the heights
+   are resampled into the new map, and the regions moved to the new scale. Then each image pixel's height is bilinearly interpolated from
+   the four nearest map heights (using per-column and per-row tables of
+   indices and weights), and the texture is still sampled at full
+   resolution. The interpolation is separable: each map row is interpolated
+   across the image's width once, into a row buffer, and each image pixel is
+   then interpolated between two of these rows. Since a pixel's height now
+   depends on neighbouring map rows, a frame is done in two passes, each
+   finished by a barrier: the heights of all the bands, and then the
+   remapping of all the bands. The regions are in map coordinates.
+
+   There are two versions of the per-pixel code (the 'kernel') used when
+   the scale is 1:
+     * the original one (the default), with two divisions by 1024 and four
+       if-tests to keep the texture position inside the image;
+     * a branch-free one, which divides with a shift (adding 1023 to negative
+       values first, so it rounds towards zero like '/'), and clamps with
+       Math.min() and Math.max(). It keeps the original's short arithmetic,
+       so its output is exactly the same.
+   RippleKernelBench checks that they match, and times them. On HotSpot the
+   original is no slower, since the JIT already turns the divisions into
+   shifts and the clamping tests are almost always predicted correctly.
+
+   The texture can be a LiveTexture (see setLiveTexture()), updated by
+   another thread with camera frames. At the start of newframe(), if a new
+   frame has been published, texture[] becomes that frame's buffer (no
+   pixels are copied, and the camera thread is never waited for). Since the
+   flat water outside the active regions is a copy of the texture, the new
+   frame is copied into ripple[] before the regions are simulated.
+*/
+package MotionDetection;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+
+public class RippleSimulator
+{
+  public static final int MAX_SCALE = 4;
+
+  private static final int DISTURB_HEIGHT = 516;
+
+  private static final int MAX_REGIONS = 32;
+  private static final int RETIRE_HEIGHT = 2;     // default for retireHeight
+  private static final int QUIET_FRAMES = 2;      // before a region is retired
+  private static final int MIN_BAND_ROWS = 16;    // smallest band run in parallel
+
+  // what a BandTask does
+  private static final int SIMULATE = 0;   // heights and remapping, when scale is 1
+  private static final int HEIGHTS = 1;    // heights only
+  private static final int REMAP = 2;      // interpolated remapping only
+
+
+  private int width, height, hwidth, hheight;    // of the image
+  private int[] texture;
+  private LiveTexture liveTexture = null;    // where texture[] comes from, if not null
+  private int[] ripple;
+  private int riprad = 3;
+  private boolean branchFree = false;    // which kernel is used
+
+  // the height field
+  private int scale;                  // image pixels per map pixel
+  private int mapWidth, mapHeight;
+  private short[] ripplemap;
+  private int oldind, newind;
+
+  // bilinear interpolation tables, for each image column and row
+  private int[] colIdxs, colNexts, colWeights;   // map column, 0 or 1 to the next one, weight/256
+  private int[] rowIdxs, rowNexts, rowWeights;   // map row, 0 or mapWidth to the next one, weight/256
+
+  // active regions, in map coordinates: [x0, x1) x [y0, y1)
+  private boolean dirtyRegions = true;
+  private int numRegions = 0;
+  private int[] regX0s = new int[MAX_REGIONS];
+  private int[] regY0s = new int[MAX_REGIONS];
+  private int[] regX1s = new int[MAX_REGIONS];
+  private int[] regY1s = new int[MAX_REGIONS];
+  private int[] regQuietFrames = new int[MAX_REGIONS];
+  private int retireHeight = RETIRE_HEIGHT;
+  private long pixelsProcessed = 0;   // map pixels in the last frame
+
+  // row buffers for remapInterpolated(), when the bands aren't used
+  private int[] upperRow, lowerRow;
+
+  // parallel bands of rows; no executor if there is only one band
+  private int numBands;
+  private ExecutorService executor = null;
+  private ArrayList<BandTask> bandTasks;
+
+
+
+  public RippleSimulator(int[] texture, int width, int height, int numThreads)
+  // texture[] holds the width*height pixels of the image under the water
+  {
+    this.texture = texture;
+    this.width = width;
+    this.height = height;
+    hwidth = width >> 1;
+    hheight = height >> 1;
+    ripple = new int[width * height];
+    upperRow = new int[width];
+    lowerRow = new int[width];
+    setScale(1);
+
+    numBands = Math.max(1, Math.min(numThreads, height));
+    if (numBands > 1) {
+      executor = Executors.newFixedThreadPool(numBands, new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "ripple band");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      bandTasks = new ArrayList<BandTask>(numBands);
+      for (int band = 0; band < numBands; band++)
+        bandTasks.add( new BandTask() );
+    }
+  }  // end of RippleSimulator()
+
+
+
+  public RippleSimulator(int[] texture, int width, int height)
+  // one band for each processor
+  {  this(texture, width, height, Runtime.getRuntime().availableProcessors());  }
+
+
+
+  public void setScale(int s)
+  /* make the height field 1/s of the image's width and height (s is 1, 2
+     or 4); must not be called while newframe() is running. The current
+     heights are resampled into the new map (see resample()), so the
+     ripples carry on at the new scale */
+  {
+    s = Math.max(1, Math.min(s, MAX_SCALE));
+    if ((ripplemap != null) && (s == scale))
+      return;
+
+    // the old height field and regions
+    short[] prevMap = ripplemap;
+    int prevScale = scale;
+    int prevWidth = mapWidth;
+    int prevHeight = mapHeight;
+    int prevOldind = oldind;
+    int prevNewind = newind;
+    int prevNumRegions = numRegions;
+    int[] prevX0s = regX0s.clone();
+    int[] prevY0s = regY0s.clone();
+    int[] prevX1s = regX1s.clone();
+    int[] prevY1s = regY1s.clone();
+
+    scale = s;
+    mapWidth = (width + scale - 1) / scale;
+    mapHeight = (height + scale - 1) / scale;
+    ripplemap = new short[mapWidth * (mapHeight + 2) * 2];
+    oldind = mapWidth;
+    newind = mapWidth * (mapHeight + 3);
+    numRegions = 0;
+    System.arraycopy(texture, 0, ripple, 0, ripple.length);    // the still surface
+
+    colIdxs = new int[width];
+    colNexts = new int[width];
+    colWeights = new int[width];
+    for (int x = 0; x < width; x++) {
+      int idx = interpPosition(x, mapWidth);
+      colIdxs[x] = idx >> 8;
+      colWeights[x] = idx & 255;
+      colNexts[x] = (colIdxs[x] < mapWidth - 1) ? 1 : 0;
+    }
+
+    rowIdxs = new int[height];
+    rowNexts = new int[height];
+    rowWeights = new int[height];
+    for (int y = 0; y < height; y++) {
+      int idx = interpPosition(y, mapHeight);
+      rowIdxs[y] = idx >> 8;
+      rowWeights[y] = idx & 255;
+      rowNexts[y] = (rowIdxs[y] < mapHeight - 1) ? mapWidth : 0;
+    }
+
+    if (prevMap == null)    // called by the constructor
+      return;
+    if (!dirtyRegions)
+      resample(prevMap, prevOldind, prevNewind, prevWidth, prevHeight, prevScale,
+               0, 0, mapWidth, mapHeight);
+    else {
+      /* each old region becomes a region covering the same part of the
+         image, plus a map pixel all round for the interpolation's spread */
+      for (int r = 0; r < prevNumRegions; r++)
+        addRegion( (prevX0s[r] * prevScale) / scale - 1,
+                   (prevY0s[r] * prevScale) / scale - 1,
+                   (prevX1s[r] * prevScale + scale - 1) / scale + 1,
+                   (prevY1s[r] * prevScale + scale - 1) / scale + 1 );
+      for (int r = 0; r < numRegions; r++)     // outside them, the water is flat
+        resample(prevMap, prevOldind, prevNewind, prevWidth, prevHeight, prevScale,
+                 regX0s[r], regY0s[r], regX1s[r], regY1s[r]);
+    }
+  }  // end of setScale()
+
+
+
+  private void resample(short[] prevMap, int prevOldind, int prevNewind,
+                        int prevWidth, int prevHeight, int prevScale,
+                        int x0, int y0, int x1, int y1)
+  /* fill [x0, x1) x [y0, y1) of both of the new maps by bilinearly
+     interpolating the old maps at the centers of the new map pixels,
+     using weights in 1/256ths */
+  {
+    int[] pxs = new int[x1 - x0];     // old map column, and weight of the next one
+    int[] wxs = new int[x1 - x0];
+    for (int mx = x0; mx < x1; mx++) {
+      int pos = resamplePosition(mx, prevScale, prevWidth);
+      pxs[mx - x0] = pos >> 8;
+      wxs[mx - x0] = pos & 255;
+    }
+
+    for (int my = y0; my < y1; my++) {
+      int pos = resamplePosition(my, prevScale, prevHeight);
+      int py = pos >> 8;
+      int wy = pos & 255;
+      int rowA = py * prevWidth;
+      int rowB = Math.min(py + 1, prevHeight - 1) * prevWidth;
+      int i = my * mapWidth + x0;
+      for (int k = 0; k < x1 - x0; k++, i++) {
+        int a = rowA + pxs[k];
+        int b = rowB + pxs[k];
+        int next = (pxs[k] < prevWidth - 1) ? 1 : 0;
+        int wx = wxs[k];
+        ripplemap[oldind + i] = (short) lerp2(prevMap, prevOldind + a, prevOldind + b, next, wx, wy);
+        ripplemap[newind + i] = (short) lerp2(prevMap, prevNewind + a, prevNewind + b, next, wx, wy);
+      }
+    }
+  }  // end of resample()
+
+
+
+  private int resamplePosition(int m, int prevScale, int prevSize)
+  /* the center of new map pixel m in old map coordinates, in 1/256ths of
+     an old map pixel, kept inside the old map */
+  {
+    int pos = ((2 * m + 1) * scale * 256) / (2 * prevScale) - 128;
+    return Math.max(0, Math.min(pos, (prevSize - 1) * 256));
+  }
+
+
+
+  private static int lerp2(short[] map, int a, int b, int next, int wx, int wy)
+  // bilinear interpolation between map[a], map[a+next], map[b], map[b+next]
+  {
+    int top = (256 - wx) * map[a] + wx * map[a + next];
+    int bottom = (256 - wx) * map[b] + wx * map[b + next];
+    return ((256 - wy) * top + wy * bottom + 32768) >> 16;
+  }
+
+
+
+  private int interpPosition(int p, int mapSize)
+  /* the position of image pixel p's center in map coordinates, in 1/256ths
+     of a map pixel, kept inside the map */
+  {
+    int pos = ((2 * p + 1) * 256) / (2 * scale) - 128;
+    return Math.max(0, Math.min(pos, (mapSize - 1) * 256));
+  }  // end of interpPosition()
+
+
+
+  public int getScale()
+  {  return scale;  }
+
+
+
+  public void setBranchFree(boolean b)
+  // choose the branch-free kernel (true) or the original one
+  {  branchFree = b;  }
+
+
+  public void setDirtyRegions(boolean b)
+  // simulate only the active regions (true), or the whole surface
+  {  dirtyRegions = b;  }
+
+
+  public void setLiveTexture(LiveTexture lt)
+  /* take the texture from lt, which must be the same size as the image;
+     must not be called while newframe() is running */
+  {
+    liveTexture = lt;
+    lt.update();
+    texture = lt.getReadBuffer();
+    System.arraycopy(texture, 0, ripple, 0, ripple.length);
+  }  // end of setLiveTexture()
+
+
+  public void setRetireHeight(int h)
+  // a region is retired when its heights are at most h; -1 means never
+  {  retireHeight = h;  }
+
+
+
+  public void disturb(int dx, int dy)
+  /* raise a small square of the water surface around image pixel (dx,dy);
+     must not be called while newframe() is running */
+  {
+    int mx = dx / scale;
+    int my = dy / scale;
+    int rad = (riprad + scale - 1) / scale;
+    for (int j = my - rad; j < my + rad; j++) {
+      for (int k = mx - rad; k < mx + rad; k++) {
+        if (j >= 0 && j < mapHeight && k >= 0 && k < mapWidth)
+          ripplemap[oldind + (j * mapWidth) + k] += DISTURB_HEIGHT;
+      }
+    }
+    addRegion(mx - rad, my - rad, mx + rad, my + rad);
+  }  // end of disturb()
+
+
+
+  // ---------------- active regions ----------------------
+
+
+  private void addRegion(int x0, int y0, int x1, int y1)
+  {
+    x0 = Math.max(x0, 0);
+    y0 = Math.max(y0, 0);
+    x1 = Math.min(x1, mapWidth);
+    y1 = Math.min(y1, mapHeight);
+    if ((x0 >= x1) || (y0 >= y1))
+      return;
+
+    if (numRegions == MAX_REGIONS) {    // no room, so add it to the last region
+      int r = numRegions - 1;
+      regX0s[r] = Math.min(regX0s[r], x0);
+      regY0s[r] = Math.min(regY0s[r], y0);
+      regX1s[r] = Math.max(regX1s[r], x1);
+      regY1s[r] = Math.max(regY1s[r], y1);
+      regQuietFrames[r] = 0;
+    }
+    else {
+      regX0s[numRegions] = x0;
+      regY0s[numRegions] = y0;
+      regX1s[numRegions] = x1;
+      regY1s[numRegions] = y1;
+      regQuietFrames[numRegions] = 0;
+      numRegions++;
+    }
+    mergeRegions();
+  }  // end of addRegion()
+
+
+
+  private void growRegions()
+  // spread every region by one pixel, as far as a wave can move in a frame
+  {
+    for (int r = 0; r < numRegions; r++) {
+      regX0s[r] = Math.max(regX0s[r] - 1, 0);
+      regY0s[r] = Math.max(regY0s[r] - 1, 0);
+      regX1s[r] = Math.min(regX1s[r] + 1, mapWidth);
+      regY1s[r] = Math.min(regY1s[r] + 1, mapHeight);
+    }
+    mergeRegions();
+  }  // end of growRegions()
+
+
+
+  private void mergeRegions()
+  /* widen regions touching the left or right edge to the full width,
+     and replace overlapping regions by their bounding box */
+  {
+    for (int r = 0; r < numRegions; r++) {
+      if ((regX0s[r] == 0) || (regX1s[r] == mapWidth)) {
+        regX0s[r] = 0;
+        regX1s[r] = mapWidth;
+      }
+    }
+
+    boolean merged = true;
+    while (merged) {
+      merged = false;
+      for (int r = 0; r < numRegions; r++) {
+        for (int s = r + 1; s < numRegions; s++) {
+          if ((regX0s[r] < regX1s[s]) && (regX0s[s] < regX1s[r]) &&
+              (regY0s[r] < regY1s[s]) && (regY0s[s] < regY1s[r])) {
+            regX0s[r] = Math.min(regX0s[r], regX0s[s]);
+            regY0s[r] = Math.min(regY0s[r], regY0s[s]);
+            regX1s[r] = Math.max(regX1s[r], regX1s[s]);
+            regY1s[r] = Math.max(regY1s[r], regY1s[s]);
+            regQuietFrames[r] = Math.min(regQuietFrames[r], regQuietFrames[s]);
+            removeRegion(s);
+            merged = true;
+            s--;
+          }
+        }
+      }
+    }
+  }  // end of mergeRegions()
+
+
+
+  private void removeRegion(int r)
+  // move the last region into r's place
+  {
+    numRegions--;
+    regX0s[r] = regX0s[numRegions];
+    regY0s[r] = regY0s[numRegions];
+    regX1s[r] = regX1s[numRegions];
+    regY1s[r] = regY1s[numRegions];
+    regQuietFrames[r] = regQuietFrames[numRegions];
+  }  // end of removeRegion()
+
+
+
+  private void retireRegion(int r)
+  // flatten the region's water, and show the texture there
+  {
+    for (int y = regY0s[r]; y < regY1s[r]; y++) {
+      int i = y * mapWidth + regX0s[r];
+      int len = regX1s[r] - regX0s[r];
+      Arrays.fill(ripplemap, oldind + i, oldind + i + len, (short) 0);
+      Arrays.fill(ripplemap, newind + i, newind + i + len, (short) 0);
+    }
+
+    // the image pixels affected by the region
+    int x0 = imageStart(regX0s[r], width);
+    int x1 = imageEnd(regX1s[r], width);
+    for (int y = imageStart(regY0s[r], height); y < imageEnd(regY1s[r], height); y++)
+      System.arraycopy(texture, y * width + x0, ripple, y * width + x0, x1 - x0);
+    removeRegion(r);
+  }  // end of retireRegion()
+
+
+
+  private int imageStart(int mapPos, int size)
+  /* the first image pixel that may be interpolated from map pixel mapPos;
+     when scale is 1 this is just mapPos */
+  {
+    if (scale == 1)
+      return mapPos;
+    return Math.max((mapPos - 1) * scale, 0);
+  }
+
+  private int imageEnd(int mapPos, int size)
+  // one past the last image pixel that may be interpolated from map pixel mapPos-1
+  {
+    if (scale == 1)
+      return mapPos;
+    return Math.min((mapPos + 1) * scale, size);
+  }
+
+
+
+  public int getNumRegions()
+  {  return numRegions;  }
+
+  public long getPixelsProcessed()
+  // the number of height field pixels simulated in the last frame
+  {  return pixelsProcessed;  }
+
+
+
+  // ---------------- simulation ----------------------
+
+
+  public void newframe()
+  {
+    // toggle maps each frame
+    int swap = oldind;
+    oldind = newind;
+    newind = swap;
+
+    if ((liveTexture != null) && liveTexture.update()) {    // a new camera frame
+      texture = liveTexture.getReadBuffer();
+      if (dirtyRegions)     // show it on the flat water
+        System.arraycopy(texture, 0, ripple, 0, ripple.length);
+    }
+
+    if (!dirtyRegions) {
+      processRect(0, 0, mapWidth, mapHeight);
+      pixelsProcessed = ((long) mapWidth) * mapHeight;
+      return;
+    }
+
+    growRegions();
+    pixelsProcessed = 0;
+    int r = 0;
+    while (r < numRegions) {
+      int maxHeight = processRect(regX0s[r], regY0s[r], regX1s[r], regY1s[r]);
+      pixelsProcessed += ((long) (regX1s[r] - regX0s[r])) * (regY1s[r] - regY0s[r]);
+      if (maxHeight <= retireHeight)
+        regQuietFrames[r]++;
+      else
+        regQuietFrames[r] = 0;
+
+      if (regQuietFrames[r] >= QUIET_FRAMES)
+        retireRegion(r);     // moves another region into r
+      else
+        r++;
+    }
+  }  // end of newframe()
+
+
+
+  private int processRect(int x0, int y0, int x1, int y1)
+  /* simulate the map pixels in [x0, x1) x [y0, y1), and remap the image
+     pixels that depend on them; returns the biggest absolute height */
+  {
+    if (scale == 1)
+      return runBands(SIMULATE, x0, x1, y0, y1);
+
+    int maxHeight = runBands(HEIGHTS, x0, x1, y0, y1);
+    runBands(REMAP, imageStart(x0, width), imageEnd(x1, width),
+                    imageStart(y0, height), imageEnd(y1, height));
+    return maxHeight;
+  }  // end of processRect()
+
+
+
+  private int runBands(int job, int x0, int x1, int y0, int y1)
+  /* do the job for [x0, x1) x [y0, y1), splitting the rows into parallel
+     bands if there are enough of them, and waiting for them all to finish;
+     returns the biggest absolute height */
+  {
+    int k = Math.min(numBands, (y1 - y0) / MIN_BAND_ROWS);
+    if ((executor == null) || (k < 2))
+      return doJob(job, x0, x1, y0, y1, upperRow, lowerRow);
+
+    for (int band = 0; band < k; band++)
+      bandTasks.get(band).set(job, x0, x1, y0 + (band * (y1 - y0)) / k,
+                                           y0 + ((band + 1) * (y1 - y0)) / k);
+    int maxHeight = 0;
+    try {
+      for (Future<Integer> f : executor.invokeAll(bandTasks.subList(0, k)))
+        maxHeight = Math.max(maxHeight, f.get());    // waits for every band
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return maxHeight;
+  }  // end of runBands()
+
+
+
+  private class BandTask implements Callable<Integer>
+  // does a job for some rows of a rectangle
+  {
+    private int job, x0, x1, startRow, endRow;
+    private int[] upper = new int[width];    // row buffers for REMAP
+    private int[] lower = new int[width];
+
+    public void set(int job, int x0, int x1, int startRow, int endRow)
+    {  this.job = job;
+       this.x0 = x0;
+       this.x1 = x1;
+       this.startRow = startRow;
+       this.endRow = endRow;
+    }
+
+    public Integer call()
+    {  return doJob(job, x0, x1, startRow, endRow, upper, lower);  }
+  }  // end of BandTask class
+
+
+
+  private int doJob(int job, int x0, int x1, int startRow, int endRow,
+                                           int[] upper, int[] lower)
+  {
+    if (job == HEIGHTS)
+      return updateHeights(x0, x1, startRow, endRow);
+    else if (job == REMAP) {
+      remapInterpolated(x0, x1, startRow, endRow, upper, lower);
+      return 0;
+    }
+    else if (branchFree)
+      return processRowsBranchFree(x0, x1, startRow, endRow);
+    else
+      return processRowsOriginal(x0, x1, startRow, endRow);
+  }  // end of doJob()
+
+
+
+  private int processRowsOriginal(int x0, int x1, int startRow, int endRow)
+  /* update the heights and remap the texture for columns [x0, x1) of
+     rows [startRow, endRow), when the map and image are the same size;
+     returns the biggest absolute height */
+  {
+    int maxHeight = 0;
+    for (int y = startRow; y < endRow; y++) {
+      int i = y * width + x0;
+      int mapind = oldind + i;
+      for (int x = x0; x < x1; x++) {
+        short data = (short) ((ripplemap[mapind - width] + ripplemap[mapind + width] +
+                               ripplemap[mapind - 1] + ripplemap[mapind + 1]) >> 1);
+        data -= ripplemap[newind + i];
+        data -= data >> 4;
+        ripplemap[newind + i] = data;
+        if (data > maxHeight)
+          maxHeight = data;
+        else if (-data > maxHeight)
+          maxHeight = -data;
+
+        // where data=0 then still, where data>0 then wave
+        data = (short) (1024 - data);
+
+        // offsets
+        int a = ((x - hwidth) * data / 1024) + hwidth;
+        int b = ((y - hheight) * data / 1024) + hheight;
+
+        // bounds check
+        if (a >= width)
+          a = width - 1;
+        if (a < 0)
+          a = 0;
+        if (b >= height)
+          b = height - 1;
+        if (b < 0)
+          b = 0;
+
+        ripple[i] = texture[a + (b * width)];
+        mapind++;
+        i++;
+      }
+    }
+    return maxHeight;
+  }  // end of processRowsOriginal()
+
+
+
+  private int processRowsBranchFree(int x0, int x1, int startRow, int endRow)
+  {
+    short[] map = ripplemap;     // locals, so the JIT can keep them in registers
+    int[] tex = texture;
+    int[] rip = ripple;
+    int w = width;
+    int maxA = width - 1;
+    int maxB = height - 1;
+    int maxHeight = 0;
+
+    for (int y = startRow; y < endRow; y++) {
+      int i = y * w + x0;
+      int mapind = oldind + i;
+      int newi = newind + i;
+      int yOffset = y - hheight;
+      int xOffset = x0 - hwidth;
+      for (int x = x0; x < x1; x++) {
+        int data = (short) ((map[mapind - w] + map[mapind + w] +
+                             map[mapind - 1] + map[mapind + 1]) >> 1);
+        data = (short) (data - map[newi]);
+        data = (short) (data - (data >> 4));
+        map[newi] = (short) data;
+        maxHeight = Math.max(maxHeight, Math.abs(data));
+
+        int scale = (short) (1024 - data);
+        int va = xOffset * scale;
+        int vb = yOffset * scale;
+        int a = ((va + ((va >> 31) & 1023)) >> 10) + hwidth;     // va/1024 + hwidth
+        int b = ((vb + ((vb >> 31) & 1023)) >> 10) + hheight;
+        a = Math.min(Math.max(a, 0), maxA);
+        b = Math.min(Math.max(b, 0), maxB);
+
+        rip[i] = tex[a + b * w];
+        xOffset++;
+        mapind++;
+        newi++;
+        i++;
+      }
+    }
+    return maxHeight;
+  }  // end of processRowsBranchFree()
+
+
+
+  private int updateHeights(int x0, int x1, int startRow, int endRow)
+  /* update the map heights for columns [x0, x1) of rows [startRow, endRow);
+     returns the biggest absolute height */
+  {
+    int maxHeight = 0;
+    for (int y = startRow; y < endRow; y++) {
+      int i = y * mapWidth + x0;
+      int mapind = oldind + i;
+      for (int x = x0; x < x1; x++) {
+        short data = (short) ((ripplemap[mapind - mapWidth] + ripplemap[mapind + mapWidth] +
+                               ripplemap[mapind - 1] + ripplemap[mapind + 1]) >> 1);
+        data -= ripplemap[newind + i];
+        data -= data >> 4;
+        ripplemap[newind + i] = data;
+        if (data > maxHeight)
+          maxHeight = data;
+        else if (-data > maxHeight)
+          maxHeight = -data;
+        mapind++;
+        i++;
+      }
+    }
+    return maxHeight;
+  }  // end of updateHeights()
+
+
+
+  private void remapInterpolated(int x0, int x1, int startRow, int endRow,
+                                                     int[] upper, int[] lower)
+  /* remap the texture for image columns [x0, x1) of rows [startRow, endRow),
+     using heights bilinearly interpolated from the new map; upper[] and
+     lower[] hold the two map rows used, interpolated across the image */
+  {
+    int upperIdx = -1;     // the map rows in upper[] and lower[]
+    int lowerIdx = -1;
+    for (int y = startRow; y < endRow; y++) {
+      int r0 = rowIdxs[y];
+      int r1 = (rowNexts[y] == 0) ? r0 : r0 + 1;
+      if (r0 != upperIdx) {
+        if (r0 == lowerIdx) {    // moved down one map row, so reuse lower[]
+          int[] swap = upper;
+          upper = lower;
+          lower = swap;
+          lowerIdx = -1;
+        }
+        else
+          interpolateRow(r0, x0, x1, upper);
+        upperIdx = r0;
+      }
+      if (r1 != lowerIdx) {
+        interpolateRow(r1, x0, x1, lower);
+        lowerIdx = r1;
+      }
+
+      int wy = rowWeights[y];
+      int i = y * width + x0;
+      for (int x = x0; x < x1; x++) {
+        int data = (upper[x] * (256 - wy) + lower[x] * wy) >> 16;
+
+        data = 1024 - data;
+        int a = ((x - hwidth) * data / 1024) + hwidth;
+        int b = ((y - hheight) * data / 1024) + hheight;
+
+        if (a >= width)
+          a = width - 1;
+        if (a < 0)
+          a = 0;
+        if (b >= height)
+          b = height - 1;
+        if (b < 0)
+          b = 0;
+
+        ripple[i] = texture[a + (b * width)];
+        i++;
+      }
+    }
+  }  // end of remapInterpolated()
+
+
+
+  private void interpolateRow(int mapRow, int x0, int x1, int[] row)
+  // the new map's heights for mapRow at image columns [x0, x1), times 256
+  {
+    int base = newind + mapRow * mapWidth;
+    for (int x = x0; x < x1; x++) {
+      int wx = colWeights[x];
+      int c = base + colIdxs[x];
+      row[x] = ripplemap[c] * (256 - wx) + ripplemap[c + colNexts[x]] * wx;
+    }
+  }  // end of interpolateRow()
+
+
+
+  public int[] getRipple()
+  // the rippled image, width*height pixels
+  {  return ripple;  }
+
+  public int getWidth()
+  {  return width;  }
+
+  public int getHeight()
+  {  return height;  }
+
+
+
+  public void shutdown()
+  // stop the band threads
+  {
+    if (executor != null)
+      executor.shutdown();
+  }  // end of shutdown()
+
+}  // end of RippleSimulator class
@@ -0,0 +1,114 @@
+
+// RippleWindow.java
+
+/* A full-screen exclusive window for showing the ripple effect using
+   active rendering, instead of the applet's MemoryImageSource and
+   offscreen image.
+
+   The simulator's ripple[] array is wrapped as the data buffer of a
+   BufferedImage (no copying), so each frame written by newframe() is already
+   in the image. render() draws this image, scaled to the screen, into the
+   back buffer of a 2-buffer BufferStrategy (an accelerated VolatileImage),
+   and shows it. In full-screen exclusive mode the buffers are flipped, which
+   waits for the vertical retrace; a blitting strategy is used if flipping
+   isn't possible.
+
+   Pressing ESC, or closing the window, exits the application.
+*/
+package MotionDetection;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+
+
+
+public class RippleWindow extends Frame
+{
+  private static final long serialVersionUID = 1L;
+  private static final int NUM_BUFFERS = 2;
+
+  private GraphicsDevice device;
+  private BufferStrategy strategy;
+  private BufferedImage rippleIm;     // shares the simulator's pixels
+
+
+
+  public RippleWindow(int[] ripple, int width, int height)
+  {
+    super("University Of Bedfordshire");
+    setUndecorated(true);
+    setIgnoreRepaint(true);     // all drawing is done by render()
+
+    addKeyListener( new KeyAdapter() {
+      public void keyPressed(KeyEvent e)
+      {  if (e.getKeyCode() == KeyEvent.VK_ESCAPE)
+           close();
+      }
+    });
+    addWindowListener( new WindowAdapter() {
+      public void windowClosing(WindowEvent e)
+      {  close();  }
+    });
+
+    device = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+    if (device.isFullScreenSupported())
+      device.setFullScreenWindow(this);
+    else {     // a screen-sized window instead
+      setSize(Toolkit.getDefaultToolkit().getScreenSize());
+      setVisible(true);
+    }
+
+    try {
+      createBufferStrategy(NUM_BUFFERS, new BufferCapabilities(
+                    new ImageCapabilities(true), new ImageCapabilities(true),
+                    BufferCapabilities.FlipContents.UNDEFINED));   // page flipping
+    }
+    catch (AWTException e) {
+      createBufferStrategy(NUM_BUFFERS);    // let AWT choose
+    }
+    strategy = getBufferStrategy();
+
+    rippleIm = wrapPixels(ripple, width, height);
+  }  // end of RippleWindow()
+
+
+
+  private BufferedImage wrapPixels(int[] pixels, int width, int height)
+  // an RGB image that uses pixels[] as its data
+  {
+    DirectColorModel cm = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+    DataBufferInt db = new DataBufferInt(pixels, pixels.length);
+    WritableRaster raster = Raster.createPackedRaster(db, width, height, width,
+                                            cm.getMasks(), null);
+    return new BufferedImage(cm, raster, false, null);
+  }  // end of wrapPixels()
+
+
+
+  public void render()
+  // draw the latest ripple frame over the whole screen, and show it
+  {
+    int screenWidth = getWidth();
+    int screenHeight = getHeight();
+    do {
+      do {
+        Graphics g = strategy.getDrawGraphics();
+        g.drawImage(rippleIm, 0, 0, screenWidth, screenHeight, null);
+        g.dispose();
+      } while (strategy.contentsRestored());    // redraw if the buffer was restored
+      strategy.show();
+    } while (strategy.contentsLost());
+    Toolkit.getDefaultToolkit().sync();
+  }  // end of render()
+
+
+
+  public void close()
+  {
+    device.setFullScreenWindow(null);
+    dispose();
+    System.exit(0);
+  }  // end of close()
+
+}  // end of RippleWindow class
@@ -9,13 +9,21 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URL;
+import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.JPanel;
 
 public class TextOverlay extends JPanel {
 
+    static final Font FONT = new Font("Quantico", Font.PLAIN, 20);
+    static final int MARGIN = 30;       // left and right of the text
+    static final int TOP_MARGIN = 5;    // above and below it
+    static final int PARA_GAP = 10;     // between entries
+
     public BufferedImage image;
+    BufferedImage overlayIm = null;     // reused by process()
+    FeedLayout layout;
 
     public TextOverlay() {
         try {
@@ -44,39 +52,41 @@ double height = screenSize.getHeight();
      BufferedImage process(BufferedImage old) {
         int w = old.getWidth();
         int h = old.getHeight();
-        BufferedImage img = new BufferedImage(
-            w, h, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = img.createGraphics();
+        if (overlayIm == null || overlayIm.getWidth() != w || overlayIm.getHeight() != h) {
+            overlayIm = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            layout = makeLayout(w);
+        }
+        Graphics2D g2d = overlayIm.createGraphics();
         g2d.drawImage(old, 0, 0, null);
-        g2d.setPaint(Color.BLACK);
-        g2d.setFont(new Font("Quantico", Font.PLAIN, 20));
         GetUserTimeline g = new GetUserTimeline();
-       String args[];
-       String s = g.getFeed();
-       
-        String s1="";
-        for(int i=0;i<s.length();i++)
-        {
-            if(i%140==0)
-                s1+='\n';
-            else
-                s1+=s.charAt(i);
-        }
-        
-          String st[] = s1.split("\n");
-        FontMetrics fm = g2d.getFontMetrics();
-        
-        int x = img.getWidth() - 5;
-        int y = fm.getHeight();
-        
-        for(int i=0;i<st.length;i++)
-        {
-           g2d.drawString(st[i], 30, y+i*30);
-           // System.out.println(st[i]);
-        }
-       // g2d.drawString("sssssssssssss", 30, 30);
+        drawFeed(g2d, layout, g.getEntries(), h);
         g2d.dispose();
-        return img;
+        return overlayIm;
+    }
+
+    /* A layout for the feed, wrapped to fit inside the margins of an
+       image imWidth pixels wide. */
+    static FeedLayout makeLayout(int imWidth) {
+        return new FeedLayout(FONT, imWidth - 2 * MARGIN, PARA_GAP);
+    }
+
+    /* Draw the entries over whatever is already in g2d, each one word-wrapped
+       as a separate paragraph, down to the bottom margin; also used by
+       LiveOverlay to draw straight into the ripple texture. */
+    static void drawFeed(Graphics2D g2d, FeedLayout layout, List<String> entries, int imHeight) {
+        g2d.setPaint(Color.BLACK);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                             RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        layout.draw(g2d, entries, MARGIN, TOP_MARGIN, imHeight - TOP_MARGIN);
+    }
+
+    /* Like drawFeed(), but blends the text into the ARGB pixels using the
+       font's GlyphAtlas, without rasterizing the glyphs again. */
+    static void drawFeedPixels(int[] pixels, int imWidth, int imHeight,
+                               FeedLayout layout, List<String> entries) {
+        GlyphAtlas atlas = GlyphAtlas.forFont(layout.getFont());
+        layout.drawPixels(atlas, 0x000000, pixels, imWidth, imHeight,
+                          entries, MARGIN, TOP_MARGIN, imHeight - TOP_MARGIN);
     }
 
     @Override
@@ -0,0 +1,172 @@
+
+// TimelineCache.java
+
+/* Keeps the latest timeline from a TimelineSource, fetching it on a
+   background thread so that readers never wait for the network.
+
+   getSnapshot() returns the newest Snapshot straight away (an immutable
+   object, read from a volatile field). If the snapshot is older than the
+   TTL, a refresh is started in the background, and the old snapshot is
+   returned until it finishes (stale-while-revalidate); only one refresh
+   runs at a time.
+
+   A failed fetch is retried up to MAX_RETRIES times, waiting RETRY_DELAY ms
+   before the first retry and doubling the wait each time. If they all fail,
+   the old entries are kept, the error is recorded in a new snapshot, and
+   there are no more tries until the TTL has passed again.
+
+   Each snapshot has a version number, which goes up only when the entries
+   change, so a reader can easily tell if it has something new to draw.
+*/
+package MotionDetection;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+public class TimelineCache
+{
+  private static final int MAX_RETRIES = 3;
+  private static final long RETRY_DELAY = 1000;    // ms, doubled for each retry
+
+
+  public static class Snapshot
+  {
+    private final List<String> entries;
+    private final int version;
+    private final long fetchTime;    // ms (0 if never fetched)
+    private final String error;      // of the last refresh, or null
+
+
+    public Snapshot(List<String> entries, int version, long fetchTime, String error)
+    {  this.entries = Collections.unmodifiableList(new ArrayList<String>(entries));
+       this.version = version;
+       this.fetchTime = fetchTime;
+       this.error = error;
+    }
+
+    public List<String> getEntries()
+    {  return entries;  }
+
+    public int getVersion()
+    {  return version;  }
+
+    public long getFetchTime()
+    {  return fetchTime;  }
+
+    public String getError()
+    {  return error;  }
+
+    public String getText()
+    // all the entries, one after another
+    {  StringBuilder sb = new StringBuilder();
+       for (String e : entries)
+         sb.append(e);
+       return sb.toString();
+    }
+  }  // end of Snapshot class
+
+
+
+  private TimelineSource source;
+  private long ttl;     // ms
+
+  private volatile Snapshot snapshot =
+              new Snapshot(Collections.<String>emptyList(), 0, 0, null);
+  private volatile long nextRefreshTime = 0;    // ms
+  private final AtomicBoolean isRefreshing = new AtomicBoolean(false);
+  private ScheduledExecutorService executor;
+
+
+
+  public TimelineCache(TimelineSource source, long ttl)
+  {
+    this.source = source;
+    this.ttl = ttl;
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "timeline refresh");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }  // end of TimelineCache()
+
+
+
+  public Snapshot getSnapshot()
+  // the latest timeline; starts a refresh if it's out of date
+  {
+    if (System.currentTimeMillis() >= nextRefreshTime)
+      refresh();
+    return snapshot;
+  }  // end of getSnapshot()
+
+
+
+  public void refresh()
+  // start a background refresh, unless one is already running
+  {
+    if (isRefreshing.compareAndSet(false, true))
+      schedule(0, 0);
+  }  // end of refresh()
+
+
+
+  private void schedule(final int attempt, long delay)
+  {
+    try {
+      executor.schedule( new Runnable() {
+        public void run()
+        {  fetch(attempt);  }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    catch (RejectedExecutionException e) {   // the cache has been shut down
+      isRefreshing.set(false);
+    }
+  }  // end of schedule()
+
+
+
+  private void fetch(int attempt)
+  // runs on the refresh thread
+  {
+    Snapshot old = snapshot;
+    try {
+      List<String> entries = source.fetch();
+      int version = entries.equals(old.getEntries()) ? old.getVersion() :
+                                                       old.getVersion() + 1;
+      snapshot = new Snapshot(entries, version, System.currentTimeMillis(), null);
+      nextRefreshTime = System.currentTimeMillis() + ttl;
+      isRefreshing.set(false);
+    }
+    catch (Exception e) {
+      if (attempt < MAX_RETRIES)
+        schedule(attempt + 1, RETRY_DELAY << attempt);
+      else {    // give up until the TTL has passed
+        snapshot = new Snapshot(old.getEntries(), old.getVersion(),
+                                old.getFetchTime(), e.toString());
+        nextRefreshTime = System.currentTimeMillis() + ttl;
+        isRefreshing.set(false);
+      }
+    }
+  }  // end of fetch()
+
+
+
+  public boolean isStale()
+  // true if the latest snapshot is older than the TTL (or there isn't one)
+  {
+    long fetchTime = snapshot.getFetchTime();
+    return (fetchTime == 0) || (System.currentTimeMillis() - fetchTime > ttl);
+  }  // end of isStale()
+
+
+
+  public void shutdown()
+  {  executor.shutdownNow();  }
+
+}  // end of TimelineCache class
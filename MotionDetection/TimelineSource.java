@@ -0,0 +1,21 @@
+
+// TimelineSource.java
+
+/* Somewhere to fetch the overlay's timeline from. TimelineCache calls
+   fetch() on its own thread, so it may block (e.g. for a remote call).
+   TwitterTimelineSource is the real one; FileTimelineSource reads a local
+   file, for testing without a network or Twitter account.
+*/
+package MotionDetection;
+
+import java.util.*;
+
+
+
+public interface TimelineSource
+{
+  List<String> fetch() throws Exception;
+  /* the timeline's entries, newest first; throws an exception if they
+     can't be fetched */
+
+}  // end of TimelineSource interface
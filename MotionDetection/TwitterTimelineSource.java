@@ -0,0 +1,69 @@
+
+// TwitterTimelineSource.java
+
+/* Fetches a user's Twitter timeline with twitter4j, using the default
+   credentials (twitter4j.properties).
+
+   The user comes from the first line of a file (twitter_user.txt by
+   default). The line's first character (e.g. '@') is not part of the name;
+   it is put in front of each entry, which is "<char><screen name> - <text>".
+*/
+package MotionDetection;
+
+import java.io.*;
+import java.util.*;
+
+import twitter4j.*;
+
+
+
+public class TwitterTimelineSource implements TimelineSource
+{
+  private static final String USER_FNM = "twitter_user.txt";
+
+  private Twitter twitter;
+  private String userFnm;
+
+
+
+  public TwitterTimelineSource()
+  {  this(USER_FNM);  }
+
+
+  public TwitterTimelineSource(String userFnm)
+  {
+    this.userFnm = userFnm;
+    twitter = new TwitterFactory().getInstance();
+  }  // end of TwitterTimelineSource()
+
+
+
+  public List<String> fetch() throws Exception
+  {
+    String line = readUserLine();
+    char first = line.charAt(0);
+    String user = line.substring(1);
+
+    List<String> entries = new ArrayList<String>();
+    for (Status status : twitter.getUserTimeline(user))
+      entries.add(first + status.getUser().getScreenName() + " - " + status.getText());
+    return entries;
+  }  // end of fetch()
+
+
+
+  private String readUserLine() throws IOException
+  {
+    BufferedReader in = new BufferedReader(new FileReader(userFnm));
+    try {
+      String line = in.readLine();
+      if ((line == null) || (line.length() < 2))
+        throw new IOException("No user name in " + userFnm);
+      return line;
+    }
+    finally {
+      in.close();
+    }
+  }  // end of readUserLine()
+
+}  // end of TwitterTimelineSource class
@@ -46,6 +46,55 @@ public void createUI()
     {
         System.out.println("called from main");
         UniversityOfBedfordshire w = new UniversityOfBedfordshire();
+        boolean active = false;
+        int scale = 1;
+        int fps = 0;
+        boolean live = false;
+        boolean liveOverlay = false;
+        String feedFnm = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-active")) {
+                active = true;
+            } else if (args[i].equals("-scale") && i < args.length - 1) {
+                scale = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-autoscale")) {
+                w.autoScale = true;
+            } else if (args[i].equals("-fps") && i < args.length - 1) {
+                fps = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-stats")) {
+                w.showStats = true;
+            } else if (args[i].equals("-live")) {
+                live = true;
+            } else if (args[i].equals("-overlay")) {
+                liveOverlay = true;
+            } else if (args[i].equals("-feedfile") && i < args.length - 1) {
+                liveOverlay = true;
+                feedFnm = args[++i];
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+            }
+        }
+        if (live && liveOverlay) {
+            System.out.println("Using the camera; the overlay is ignored");
+            liveOverlay = false;
+        }
+        if (liveOverlay) {
+            w.textureFnm = "bd.jpg";    // the feed is drawn over it
+        }
+        if (active) {
+            // full-screen exclusive window, drawn by active rendering
+            w.init();
+            w.setFps(fps);
+            if (live) {
+                w.useLiveTexture();
+            } else if (liveOverlay) {
+                w.useLiveOverlay(feedFnm);
+            }
+            w.water.setScale(scale);
+            w.rippleWindow = new RippleWindow(w.water.getRipple(), w.width, w.height);
+            w.start();
+            return;
+        }
         Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
         int width1 = (int) screenSize.getWidth();
         int height1 = (int) screenSize.getHeight();
@@ -58,6 +107,13 @@ public void createUI()
         f.add(w);
         f.setVisible(true);
         w.init();
+        w.setFps(fps);
+        if (live) {
+            w.useLiveTexture();
+        } else if (liveOverlay) {
+            w.useLiveOverlay(feedFnm);
+        }
+        w.water.setScale(scale);
         w.start();
         w.run();
         f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -68,14 +124,26 @@ public void createUI()
     MemoryImageSource source;
     Image image, offImage;
     Graphics offGraphics;
-    int i, a, b;
     int MouseX, MouseY;
-    int fps, delay, size;
-    short ripplemap[];
+    int fps, delay;
     int texture[];
-    int ripple[];
-    int oldind, newind, mapind;
-    int riprad;
+    RippleSimulator water;      // the height field, updated in parallel row bands
+    RippleWindow rippleWindow = null;   // used instead of the applet if not null
+
+    // automatic choice of the height field's scale, to keep up the frame rate
+    static final int SCALE_UP_FRAMES = 30;      // slow frames in a row before scaling up
+    static final int SCALE_DOWN_FRAMES = 300;   // fast frames in a row before scaling down
+    boolean autoScale = false;
+    double avgFrameMs = 0;
+    int slowFrames = 0;
+    int fastFrames = 0;
+    // the animation loop's timing
+    static final int STATS_PERIOD = 5000;   // ms between printed stats
+    FramePacer pacer;
+    boolean showStats = false;
+    // the image under the water; bd.jpg (without the feed) for the live overlay
+    String textureFnm = "ot.jpg";
+    LiveOverlay overlay = null;
     Image im;
     public static MotionDetector md = new MotionDetector();
     Thread animatorThread;
@@ -91,7 +159,7 @@ public void createUI()
 
         //Retrieve the base image
 
-        str = "ot.jpg";
+        str = textureFnm;
         // try{
        // TextOverlay t = new TextOverlay();
         // }
@@ -100,7 +168,7 @@ public void createUI()
             try {
                 MediaTracker mt = new MediaTracker(this);
                 // im = getImage(getDocumentBase(),str);
-                im = ImageIO.read(new File("ot.jpg"));
+                im = ImageIO.read(new File(str));
                 mt.addImage(im, 0);
                 try {
                     mt.waitForID(0);
@@ -125,14 +193,8 @@ public void createUI()
         height = im.getHeight(this);
         hwidth = width >> 1;
         hheight = height >> 1;
-        riprad = 3;
 
-        size = width * (height + 2) * 2;
-        ripplemap = new short[size];
-        ripple = new int[width * height];
         texture = new int[width * height];
-        oldind = width;
-        newind = width * (height + 3);
 
         PixelGrabber pg = new PixelGrabber(im, 0, 0, width, height, texture, 0, width);
         try {
@@ -141,7 +203,8 @@ public void createUI()
         }
 
 
-        source = new MemoryImageSource(width, height, ripple, 0, width);
+        water = new RippleSimulator(texture, width, height);
+        source = new MemoryImageSource(width, height, water.getRipple(), 0, width);
         source.setAnimated(true);
         source.setFullBufferUpdates(true);
 
@@ -171,6 +234,12 @@ public void createUI()
     }
 
     public void destroy() {
+        if (water != null) {
+            water.shutdown();
+        }
+        if (overlay != null) {
+            overlay.stop();
+        }
        // removeMouseListener(this);
        // removeMouseMotionListener(this);
     }
@@ -207,33 +276,98 @@ public void createUI()
 */
     public void run() {
         Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-        long startTime = System.currentTimeMillis();
-        int oldCogx = 0;
-        int oldCogy = 0;
-        int newCogx = 0;
-        int newCogy = 0;
+        // the detector's COGs, scaled from camera to texture coords, as a trail of disturbances
+        CogTrail trail = new CogTrail(MotionPanel.cogQueue,
+                ((float) width) / MotionPanel.WIDTH, ((float) height) / MotionPanel.HEIGHT);
+        pacer = new FramePacer((fps > 0) ? fps : 1000 / delay);
+        long statsTime = System.currentTimeMillis();
         while (Thread.currentThread() == animatorThread) {
-            newframe();
-            source.newPixels();
-            offGraphics.drawImage(image, 0, 0, width, height, null);
-            repaint();
-
-            try {
-                startTime += delay;
-                Thread.sleep(Math.max(0, startTime - System.currentTimeMillis()));
-            } catch (InterruptedException e) {
+            // fixed-timestep simulation; extra steps (and no renders) if behind
+            int steps = pacer.beginFrame();
+            for (int i = 0; i < steps; i++) {
+                trail.update(System.nanoTime(), water);
+                newframe();
+            }
+            if (rippleWindow != null) {
+                rippleWindow.render();
+            } else {
+                source.newPixels();
+                offGraphics.drawImage(image, 0, 0, width, height, null);
+                repaint();
+            }
+            if (!pacer.endFrame()) {
                 break;
             }
-            newCogx = 2 * md.getCogx();
-            newCogy = 2 * md.getCogy();
-            if (newCogx != oldCogx || newCogy != oldCogy) {
-                disturb(md.getCogx(), md.getCogy());
+            if (autoScale) {
+                adjustScale(pacer.getLastFrameMs());
+            }
+            if (showStats && System.currentTimeMillis() - statsTime >= STATS_PERIOD) {
+                System.out.println(pacer.getStats());
+                statsTime = System.currentTimeMillis();
             }
-            oldCogx = newCogx;
-            oldCogy = newCogy;
         }
     }
 
+    /* Show the ripples over the live webcam frames, instead of the still
+       image; the motion panel copies each frame into the texture. */
+    void useLiveTexture() {
+        LiveTexture lt = new LiveTexture(texture, width, height);
+        water.setLiveTexture(lt);
+        MotionPanel.liveTexture = lt;
+    }
+
+    /* Draw the timeline over the image straight into the ripple texture,
+       and redraw it when the timeline changes; the timeline comes from
+       Twitter, or from feedFnm (one entry per line) if it isn't null. */
+    void useLiveOverlay(String feedFnm) {
+        TimelineSource src = (feedFnm != null) ? new FileTimelineSource(feedFnm) :
+                                                 new TwitterTimelineSource();
+        overlay = new LiveOverlay((BufferedImage) im, texture,
+                                  new TimelineCache(src, GetUserTimeline.TTL));
+        water.setLiveTexture(overlay.getTexture());
+        overlay.start();
+    }
+
+    /* Change the simulation rate from the default (60 fps), if fps is
+       positive; must be called before start(). */
+    void setFps(int fps) {
+        if (fps > 0) {
+            this.fps = fps;
+            delay = 1000 / fps;
+        }
+    }
+
+    /* Use a smaller height field (a bigger scale) if the frames take
+       more than 90% of the delay between them, and a bigger one again
+       if they take less than 30% of it for a long time. */
+    void adjustScale(double frameMs) {
+        avgFrameMs = (avgFrameMs == 0) ? frameMs : 0.9 * avgFrameMs + 0.1 * frameMs;
+        int scale = water.getScale();
+        if (avgFrameMs > 0.9 * delay && scale < RippleSimulator.MAX_SCALE) {
+            fastFrames = 0;
+            if (++slowFrames >= SCALE_UP_FRAMES) {
+                changeScale(scale * 2);
+            }
+        } else if (avgFrameMs < 0.3 * delay && scale > 1) {
+            slowFrames = 0;
+            if (++fastFrames >= SCALE_DOWN_FRAMES) {
+                changeScale(scale / 2);
+            }
+        } else {
+            slowFrames = 0;
+            fastFrames = 0;
+        }
+    }
+
+    void changeScale(int scale) {
+        water.setScale(scale);
+        System.out.println("Ripple scale: " + water.getScale() + " (" +
+                String.format("%.1f", avgFrameMs) + " ms/frame)");
+        avgFrameMs = 0;
+        slowFrames = 0;
+        fastFrames = 0;
+    }
+
     public void paint(Graphics g) {
         update(g);
     }
@@ -243,55 +377,10 @@ public void createUI()
     }
 
     public void disturb(int dx, int dy) {
-        for (int j = dy - riprad; j < dy + riprad; j++) {
-            for (int k = dx - riprad; k < dx + riprad; k++) {
-                if (j >= 0 && j < height && k >= 0 && k < width) {
-                    ripplemap[oldind + (j * width) + k] += 516;
-                }
-            }
-        }
+        water.disturb(dx, dy);
     }
 
     public void newframe() {
-        //Toggle maps each frame
-        i = oldind;
-        oldind = newind;
-        newind = i;
-
-        i = 0;
-        mapind = oldind;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                short data = (short) ((ripplemap[mapind - width] + ripplemap[mapind + width] + ripplemap[mapind - 1] + ripplemap[mapind + 1]) >> 1);
-                data -= ripplemap[newind + i];
-                data -= data >> 4;
-                ripplemap[newind + i] = data;
-
-                //where data=0 then still, where data>0 then wave
-                data = (short) (1024 - data);
-
-                //offsets
-                a = ((x - hwidth) * data / 1024) + hwidth;
-                b = ((y - hheight) * data / 1024) + hheight;
-
-                //bounds check
-                if (a >= width) {
-                    a = width - 1;
-                }
-                if (a < 0) {
-                    a = 0;
-                }
-                if (b >= height) {
-                    b = height - 1;
-                }
-                if (b < 0) {
-                    b = 0;
-                }
-
-                ripple[i] = texture[a + (b * width)];
-                mapind++;
-                i++;
-            }
-        }
+        water.newframe();
     }
 }
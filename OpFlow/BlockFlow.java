@@ -0,0 +1,267 @@
+
+// BlockFlow.java
+
+/* Dense optical flow by block matching: the previous frame is divided into
+   square blocks (8x8 or 16x16 pixels), and for each block the best matching
+   position in the current frame is found, giving one motion vector per block.
+   Unlike corner tracking, this finds motion on surfaces with little texture.
+
+   For each block, a few predicted vectors are tried first: no motion, the
+   block's vector from the previous frame, and the previous vectors of its four
+   neighbours. The best prediction is then refined with a three-step search
+   (step sizes 8, 4, 2, 1), so the cost per block is small and fixed. The match
+   cost is the sum of absolute differences (SAD), which stops early when it
+   exceeds the best cost so far. A vector is only accepted if its match is
+   clearly better than no motion; otherwise the block is treated as still.
+
+   The vectors are stored in int arrays (one entry per block), which are
+   swapped each frame so the old ones can be used as predictions. The rows
+   of blocks are split into bands, which are processed in parallel by a
+   ForkJoinPool; each band only reads the previous frame's vectors, so the
+   result doesn't depend on the order the bands are done.
+*/
+
+import java.util.concurrent.*;
+
+
+
+public class BlockFlow
+{
+  private static final int ROWS_PER_TASK = 2;   // rows of blocks processed by one task
+  private static final int[] STEPS = { 8, 4, 2, 1 };    // three-step search (plus one)
+
+  private static final int MIN_GAIN = 4;
+     /* per pixel; the SAD of the best vector must be this much better than
+        the SAD of no motion, for the vector to be accepted */
+
+
+  private int width, height;
+  private int blockSize;
+  private int cols, rows;    // of blocks
+  private int maxRange;      // longest vector component allowed
+
+  private int[] dxs, dys;            // vectors for the current frame
+  private int[] prevDxs, prevDys;    // vectors for the previous frame
+  private boolean[] moving;          // does a block have an accepted vector?
+
+  private ForkJoinPool pool;
+
+  // the frames being compared by calc()
+  private byte[] prevIm, currIm;
+
+
+
+  public BlockFlow(int width, int height, int blockSize, int maxRange)
+  {
+    this(width, height, blockSize, maxRange, new ForkJoinPool());
+  }
+
+
+  public BlockFlow(int width, int height, int blockSize, int maxRange, ForkJoinPool pool)
+  {
+    this.width = width;
+    this.height = height;
+    this.blockSize = blockSize;
+    this.maxRange = maxRange;
+    this.pool = pool;
+
+    cols = width/blockSize;
+    rows = height/blockSize;
+    int numBlocks = cols*rows;
+    dxs = new int[numBlocks];
+    dys = new int[numBlocks];
+    prevDxs = new int[numBlocks];
+    prevDys = new int[numBlocks];
+    moving = new boolean[numBlocks];
+  }  // end of BlockFlow()
+
+
+
+  public int getNumBlocks()
+  {  return cols*rows;  }
+
+
+
+  public void calc(byte[] prevIm, byte[] currIm)
+  /* find the vectors of the blocks of prevIm (8-bit grayscale, width*height
+     pixels, no padding) in currIm */
+  {
+    this.prevIm = prevIm;
+    this.currIm = currIm;
+
+    int[] swap = prevDxs;    // last frame's vectors become the predictions
+    prevDxs = dxs;
+    dxs = swap;
+    swap = prevDys;
+    prevDys = dys;
+    dys = swap;
+
+    pool.invoke( new BandTask(0, rows) );
+  }  // end of calc()
+
+
+
+  private class BandTask extends RecursiveAction
+  // find the vectors for the rows of blocks [startRow, endRow)
+  {
+    private static final long serialVersionUID = 1L;
+
+    private int startRow, endRow;
+
+    public BandTask(int startRow, int endRow)
+    {  this.startRow = startRow;
+       this.endRow = endRow;
+    }
+
+    protected void compute()
+    {
+      if (endRow - startRow <= ROWS_PER_TASK) {
+        for (int row = startRow; row < endRow; row++)
+          for (int col = 0; col < cols; col++)
+            matchBlock(row, col);
+      }
+      else {
+        int mid = (startRow + endRow) >>> 1;
+        invokeAll( new BandTask(startRow, mid), new BandTask(mid, endRow));
+      }
+    }
+  }  // end of BandTask class
+
+
+
+  private void matchBlock(int row, int col)
+  {
+    int idx = row*cols + col;
+    int bx = col*blockSize;    // top-left of the block in prevIm
+    int by = row*blockSize;
+
+    int zeroCost = sad(bx, by, 0, 0, Integer.MAX_VALUE);
+    int bestDx = 0;
+    int bestDy = 0;
+    int bestCost = zeroCost;
+
+    // try the predictions: this block and its neighbours in the previous frame
+    for (int p = 0; p < 5; p++) {
+      int pIdx = idx;
+      if (p == 1) {
+        if (col == 0) continue;
+        pIdx = idx-1;
+      }
+      else if (p == 2) {
+        if (col == cols-1) continue;
+        pIdx = idx+1;
+      }
+      else if (p == 3) {
+        if (row == 0) continue;
+        pIdx = idx-cols;
+      }
+      else if (p == 4) {
+        if (row == rows-1) continue;
+        pIdx = idx+cols;
+      }
+      int pdx = prevDxs[pIdx];
+      int pdy = prevDys[pIdx];
+      if (((pdx != 0) || (pdy != 0)) && ((pdx != bestDx) || (pdy != bestDy))) {
+        int cost = sad(bx, by, pdx, pdy, bestCost);
+        if (cost < bestCost) {
+          bestCost = cost;
+          bestDx = pdx;
+          bestDy = pdy;
+        }
+      }
+    }
+
+    // refine around the best prediction, with decreasing step sizes
+    for (int step : STEPS) {
+      int centerDx = bestDx;
+      int centerDy = bestDy;
+      for (int sy = -1; sy <= 1; sy++) {
+        for (int sx = -1; sx <= 1; sx++) {
+          if ((sx == 0) && (sy == 0))
+            continue;
+          int dx = centerDx + sx*step;
+          int dy = centerDy + sy*step;
+          int cost = sad(bx, by, dx, dy, bestCost);
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestDx = dx;
+            bestDy = dy;
+          }
+        }
+      }
+    }
+
+    if (zeroCost - bestCost > MIN_GAIN*blockSize*blockSize) {
+      dxs[idx] = bestDx;
+      dys[idx] = bestDy;
+      moving[idx] = true;
+    }
+    else {
+      dxs[idx] = 0;
+      dys[idx] = 0;
+      moving[idx] = false;
+    }
+  }  // end of matchBlock()
+
+
+
+  private int sad(int bx, int by, int dx, int dy, int bestCost)
+  /* The sum of absolute differences between the block at (bx,by) in prevIm
+     and the block moved by (dx,dy) in currIm. Stops once the sum is at least
+     bestCost. A moved block that isn't completely inside the image, or is
+     too far away, costs Integer.MAX_VALUE. */
+  {
+    int cx = bx + dx;
+    int cy = by + dy;
+    if ((Math.abs(dx) > maxRange) || (Math.abs(dy) > maxRange) ||
+        (cx < 0) || (cy < 0) || (cx + blockSize > width) || (cy + blockSize > height))
+      return Integer.MAX_VALUE;
+
+    int sum = 0;
+    for (int y = 0; y < blockSize; y++) {
+      int pi = (by+y)*width + bx;
+      int ci = (cy+y)*width + cx;
+      for (int x = 0; x < blockSize; x++)
+        sum += Math.abs((prevIm[pi+x] & 0xFF) - (currIm[ci+x] & 0xFF));
+      if (sum >= bestCost)
+        return sum;
+    }
+    return sum;
+  }  // end of sad()
+
+
+
+  public int getVectors(float[] xsA, float[] ysA, float[] xsB, float[] ysB, byte[] found)
+  /* Store the block centers (A) and their moved positions (B) in the arrays,
+     in the same form as tracked corners; found[i] is 1 for a moving block.
+     Returns the number of blocks. */
+  {
+    int numBlocks = cols*rows;
+    float half = blockSize/2.0f;
+    for (int i = 0; i < numBlocks; i++) {
+      xsA[i] = (i % cols)*blockSize + half;
+      ysA[i] = (i / cols)*blockSize + half;
+      xsB[i] = xsA[i] + dxs[i];
+      ysB[i] = ysA[i] + dys[i];
+      found[i] = (byte)(moving[i] ? 1 : 0);
+    }
+    return numBlocks;
+  }  // end of getVectors()
+
+
+  // direct access to the vector grid (row by row)
+
+  public int[] getDxs()
+  {  return dxs;  }
+
+  public int[] getDys()
+  {  return dys;  }
+
+  public int getCols()
+  {  return cols;  }
+
+  public int getRows()
+  {  return rows;  }
+
+
+}  // end of BlockFlow class
@@ -0,0 +1,201 @@
+
+// DirectionHistogram.java
+
+/* Stores the directions found in a frame, and groups them by angle.
+
+   A direction is a pair of integer points (x0,y0) --> (x1,y1): a corner's
+   position in the previous frame and the current frame. Directions are
+   grouped into NUM_BINS bins, each covering ANGLE_RANGE degrees.
+
+   The directions are held in preallocated arrays (one per field) rather than
+   as objects, and each bin keeps a count and the sums of its directions'
+   midpoints. This means that adding a direction allocates nothing, and the
+   mean midpoint of the biggest bin is available without looking at the
+   directions again.
+
+   The directions can be drawn as blue arrows (a debugging overlay).
+*/
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class DirectionHistogram
+{
+  public static final int ANGLE_RANGE = 20;     // degree range for each bin
+  public static final int NUM_BINS = 360/ANGLE_RANGE;
+
+  private static final int THICKNESS = 2;   // of a drawn arrow line
+
+
+  // the directions
+  private int capacity;
+  private int numDirs = 0;
+  private int[] x0s, y0s, x1s, y1s;
+  private float[] lengths;
+  private int[] bins;       // angle bin of each direction
+
+  // per-bin data
+  private int[] binCounts;
+  private long[] binSumXs, binSumYs;    // sums of midpoints
+
+  // reused when drawing arrows
+  private CvPoint p0 = new CvPoint();
+  private CvPoint p1 = new CvPoint();
+  private CvPoint arrowEnd = new CvPoint();
+
+
+
+  public DirectionHistogram(int capacity)
+  {
+    this.capacity = capacity;
+    x0s = new int[capacity];
+    y0s = new int[capacity];
+    x1s = new int[capacity];
+    y1s = new int[capacity];
+    lengths = new float[capacity];
+    bins = new int[capacity];
+
+    binCounts = new int[NUM_BINS];
+    binSumXs = new long[NUM_BINS];
+    binSumYs = new long[NUM_BINS];
+  }  // end of DirectionHistogram()
+
+
+
+  public void clear()
+  {
+    numDirs = 0;
+    for (int b=0; b < NUM_BINS; b++) {
+      binCounts[b] = 0;
+      binSumXs[b] = 0;
+      binSumYs[b] = 0;
+    }
+  }  // end of clear()
+
+
+
+  public static int angleBin(int xDist, int yDist)
+  /* the bin for a direction's angle; the angle is in the range -180 to 180,
+     rounded to an integer degree */
+  {
+    int angle = (int)Math.round( Math.toDegrees( Math.atan2(yDist, xDist)));
+    int bin = (angle+180)/ANGLE_RANGE;
+    if (bin == NUM_BINS)   // deal with 180 deg angle
+      bin = 0;
+    return bin;
+  }  // end of angleBin()
+
+
+
+  public void add(int x0, int y0, int x1, int y1, float length)
+  // add a direction (if there's room)
+  {
+    if (numDirs == capacity)
+      return;
+
+    int bin = angleBin(x1-x0, y1-y0);
+    x0s[numDirs] = x0;
+    y0s[numDirs] = y0;
+    x1s[numDirs] = x1;
+    y1s[numDirs] = y1;
+    lengths[numDirs] = length;
+    bins[numDirs] = bin;
+    numDirs++;
+
+    binCounts[bin]++;
+    binSumXs[bin] += (x0+x1)/2;    // midpoint
+    binSumYs[bin] += (y0+y1)/2;
+  }  // end of add()
+
+
+
+  public int getNumDirs()
+  {  return numDirs;  }
+
+  public int getBinCount(int bin)
+  {  return binCounts[bin];  }
+
+
+  public int largestBin()
+  // the bin with the most directions (the first, if there's a tie), or -1 if all are empty
+  {
+    int maxCount = 0;
+    int largest = -1;
+    for (int b=0; b < NUM_BINS; b++) {
+      if (binCounts[b] > maxCount) {
+        maxCount = binCounts[b];
+        largest = b;
+      }
+    }
+    return largest;
+  }  // end of largestBin()
+
+
+  public int getMeanMidX(int bin)
+  {  return (int)(binSumXs[bin]/binCounts[bin]);  }
+
+  public int getMeanMidY(int bin)
+  {  return (int)(binSumYs[bin]/binCounts[bin]);  }
+
+
+  // direct access to the arrays; only the first getNumDirs() entries are used
+
+  public int[] getX0s()
+  {  return x0s;  }
+
+  public int[] getY0s()
+  {  return y0s;  }
+
+  public int[] getX1s()
+  {  return x1s;  }
+
+  public int[] getY1s()
+  {  return y1s;  }
+
+  public float[] getLengths()
+  {  return lengths;  }
+
+  public int[] getBins()
+  {  return bins;  }
+
+
+
+  public void drawArrows(IplImage im)
+  // draw all the directions as blue arrows
+  {
+    for (int i=0; i < numDirs; i++)
+      drawArrow(im, i);
+  }
+
+
+  private void drawArrow(IplImage im, int i)
+  {
+    p0.x(x0s[i]).y(y0s[i]);
+    p1.x(x1s[i]).y(y1s[i]);
+
+    // draw the direction line
+    cvLine(im, p0, p1, CvScalar.BLUE, THICKNESS, CV_AA, 0);   // line type, shift
+
+    double angle = Math.atan2(y1s[i] - y0s[i], x1s[i] - x0s[i]);
+    int arrowHeadLen = Math.round( lengths[i]/4 );
+
+    // compute the coordinates of the end of the first segment of the arrow head
+    arrowEnd.x( (int)Math.round(x1s[i] - arrowHeadLen * Math.cos(angle + Math.PI/4)) );
+    arrowEnd.y( (int)Math.round(y1s[i] - arrowHeadLen * Math.sin(angle + Math.PI/4)) );
+
+    // draw the first segment
+    cvLine(im, arrowEnd, p1, CvScalar.BLUE, THICKNESS, CV_AA, 0);
+
+    // compute the coordinates of the end of the second segment
+    arrowEnd.x( (int)Math.round(x1s[i] - arrowHeadLen * Math.cos(angle - Math.PI/4)) );
+    arrowEnd.y( (int)Math.round(y1s[i] - arrowHeadLen * Math.sin(angle - Math.PI/4)) );
+
+    // draw the second segment
+    cvLine(im, arrowEnd, p1, CvScalar.BLUE, THICKNESS, CV_AA, 0);
+  }  // end of drawArrow()
+
+
+}  // end of DirectionHistogram class
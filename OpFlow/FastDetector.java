@@ -0,0 +1,213 @@
+
+// FastDetector.java
+
+/* A Java version of the FAST-9 corner detector (Rosten and Drummond), which
+   is much cheaper than the Shi and Tomasi detector in cvGoodFeaturesToTrack()
+   since it needs no eigenvalue (float) images.
+
+   A pixel p is a corner if there are at least 9 contiguous pixels on the
+   16-pixel circle (radius 3) around it which are all brighter than p+threshold,
+   or all darker than p-threshold. The test builds two 16-bit masks (one bit for
+   each brighter/darker circle pixel), and looks them up in a 65536-entry table
+   which says whether a mask contains a circular run of 9 set bits. Most pixels
+   are rejected earlier by looking at only the four compass pixels (at least
+   two of them must be brighter, or two darker, for a 9-pixel run).
+
+   A corner's score is the sum of the amounts by which the circle pixels
+   exceed the threshold (on the brighter or darker side, whichever is bigger).
+
+   The region being searched is divided into NMS_SIZE x NMS_SIZE squares, and
+   only the highest scoring corner in each square is kept (a grid-based
+   non-maximum suppression), which also spreads the corners out. The best
+   of these are returned, up to a caller-supplied limit (a per-cell cap).
+
+   The image is copied into a byte array by setImage(), and then any number
+   of regions can be searched by detect().
+*/
+
+import java.nio.*;
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class FastDetector
+{
+  public static final int THRESHOLD = 20;    // default intensity difference
+
+  private static final int ARC_LENGTH = 9;
+  private static final int BORDER = 3;       // the circle's radius
+
+  // the circle, clockwise from the top
+  private static final int[] CIRCLE_XS = { 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1 };
+  private static final int[] CIRCLE_YS = { -3, -3, -2, -1, 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3 };
+
+  private static final boolean[] HAS_ARC = makeArcTable();
+       // HAS_ARC[mask] is true if mask has ARC_LENGTH circularly contiguous bits
+
+
+  private int threshold;
+  private int nmsSize;
+
+  private byte[] pixels;         // the image
+  private int width, height;
+  private int[] offsets = new int[16];    // of the circle pixels in pixels[]
+
+  // best corner in each NMS square of the region being searched
+  private int[] bestScores, bestXs, bestYs;
+
+
+
+  public FastDetector(int maxWidth, int maxHeight, int threshold, int nmsSize)
+  // maxWidth and maxHeight are the largest image size that will be used
+  {
+    this.threshold = threshold;
+    this.nmsSize = nmsSize;
+    pixels = new byte[maxWidth*maxHeight];
+
+    int maxSquares = ((maxWidth + nmsSize-1)/nmsSize) * ((maxHeight + nmsSize-1)/nmsSize);
+    bestScores = new int[maxSquares];
+    bestXs = new int[maxSquares];
+    bestYs = new int[maxSquares];
+  }  // end of FastDetector()
+
+
+
+  private static boolean[] makeArcTable()
+  {
+    boolean[] table = new boolean[1 << 16];
+    int arc = (1 << ARC_LENGTH) - 1;
+    for (int mask=0; mask < table.length; mask++) {
+      int doubled = mask | (mask << 16);    // so runs can wrap around
+      for (int start=0; start < 16; start++) {
+        if (((doubled >>> start) & arc) == arc) {
+          table[mask] = true;
+          break;
+        }
+      }
+    }
+    return table;
+  }  // end of makeArcTable()
+
+
+
+  public void setImage(IplImage grayIm)
+  // copy an 8-bit, 1 channel image, row by row
+  {
+    width = grayIm.width();
+    height = grayIm.height();
+    int step = grayIm.widthStep();
+    ByteBuffer bb = grayIm.getByteBuffer();
+    for (int y=0; y < height; y++) {
+      bb.position(y*step);
+      bb.get(pixels, y*width, width);
+    }
+
+    for (int i=0; i < 16; i++)
+      offsets[i] = CIRCLE_YS[i]*width + CIRCLE_XS[i];
+  }  // end of setImage()
+
+
+
+  public int detect(int rx, int ry, int rw, int rh, int maxCorners, float[] xs, float[] ys)
+  /* Find up to maxCorners corners in the region (rx,ry,rw,rh) of the image,
+     strongest first, storing them in xs[] and ys[]. Returns the number found. */
+  {
+    int numSquaresX = (rw + nmsSize-1)/nmsSize;
+    int numSquaresY = (rh + nmsSize-1)/nmsSize;
+    int numSquares = numSquaresX*numSquaresY;
+    for (int s=0; s < numSquares; s++)
+      bestScores[s] = 0;
+
+    // the circle must be inside the image
+    int x0 = Math.max(rx, BORDER);
+    int y0 = Math.max(ry, BORDER);
+    int x1 = Math.min(rx+rw, width-BORDER);
+    int y1 = Math.min(ry+rh, height-BORDER);
+
+    for (int y=y0; y < y1; y++) {
+      int rowSquare = ((y-ry)/nmsSize)*numSquaresX;
+      for (int x=x0; x < x1; x++) {
+        int score = cornerScore(y*width + x);
+        if (score > 0) {
+          int s = rowSquare + (x-rx)/nmsSize;
+          if (score > bestScores[s]) {
+            bestScores[s] = score;
+            bestXs[s] = x;
+            bestYs[s] = y;
+          }
+        }
+      }
+    }
+
+    // move the best maxCorners squares to the front (a partial selection sort)
+    int n = 0;
+    while (n < maxCorners) {
+      int best = -1;
+      int bestScore = 0;
+      for (int s=n; s < numSquares; s++) {
+        if (bestScores[s] > bestScore) {
+          bestScore = bestScores[s];
+          best = s;
+        }
+      }
+      if (best == -1)   // no more corners
+        break;
+      xs[n] = bestXs[best];
+      ys[n] = bestYs[best];
+      // swap square n's data into the gap left by best
+      bestScores[best] = bestScores[n];
+      bestXs[best] = bestXs[n];
+      bestYs[best] = bestYs[n];
+      n++;
+    }
+    return n;
+  }  // end of detect()
+
+
+
+  private int cornerScore(int pos)
+  // the corner score of pixels[pos], or 0 if it isn't a corner
+  {
+    int p = pixels[pos] & 0xFF;
+    int hi = p + threshold;
+    int lo = p - threshold;
+
+    // quick rejection using the top, right, bottom and left pixels
+    int top = pixels[pos + offsets[0]] & 0xFF;
+    int bottom = pixels[pos + offsets[8]] & 0xFF;
+    int right = pixels[pos + offsets[4]] & 0xFF;
+    int left = pixels[pos + offsets[12]] & 0xFF;
+    int numBrighter = ((top > hi) ? 1 : 0) + ((bottom > hi) ? 1 : 0) +
+                      ((right > hi) ? 1 : 0) + ((left > hi) ? 1 : 0);
+    int numDarker = ((top < lo) ? 1 : 0) + ((bottom < lo) ? 1 : 0) +
+                    ((right < lo) ? 1 : 0) + ((left < lo) ? 1 : 0);
+    if ((numBrighter < 2) && (numDarker < 2))
+      return 0;
+
+    int brighterMask = 0;
+    int darkerMask = 0;
+    int brighterSum = 0;
+    int darkerSum = 0;
+    for (int i=0; i < 16; i++) {
+      int v = pixels[pos + offsets[i]] & 0xFF;
+      if (v > hi) {
+        brighterMask |= (1 << i);
+        brighterSum += v - hi;
+      }
+      else if (v < lo) {
+        darkerMask |= (1 << i);
+        darkerSum += lo - v;
+      }
+    }
+
+    int score = 0;
+    if (HAS_ARC[brighterMask])
+      score = brighterSum;
+    if (HAS_ARC[darkerMask])
+      score = Math.max(score, darkerSum);
+    return score;
+  }  // end of cornerScore()
+
+
+}  // end of FastDetector class
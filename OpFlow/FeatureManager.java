@@ -0,0 +1,330 @@
+
+// FeatureManager.java
+
+/* Manages the corners ('features') tracked by OpticalFlowMove, so that
+   cvGoodFeaturesToTrack() never has to be called for the whole image.
+
+   The image is divided into a grid of cells, and each cell should contain
+   between minPerCell and cellCap features. After the features have been
+   tracked into a new frame, update() keeps the ones that were found, drops
+   the lost ones and the outliers (those with a large tracking error or an
+   impossibly long move), and drops the youngest features in any cell that
+   has become too crowded. The surviving features get one frame older.
+
+   topUp() then detects new features, but only in the cells with too few
+   features. Detection is limited to the cell (by setting the image's ROI),
+   and is masked so that no new feature is placed close to an existing one.
+   At most MAX_CELLS_PER_FRAME cells are topped up per frame, visited in a
+   round-robin order, so the detection cost for a frame is small and
+   predictable.
+
+   Detection can be done at a coarser level of the PyramidCache's 8-bit
+   pyramid (detectLevel > 0), which makes it cheaper, and the corners are
+   scaled back up to full-size coordinates.
+
+   The corners are found by cvGoodFeaturesToTrack(), or by a FastDetector
+   if useFAST() has been called. FAST corners are scored and thinned by the
+   detector, and any that are too close to an existing feature are skipped.
+
+   The features are stored in float arrays, oldest first.
+*/
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+
+
+
+public class FeatureManager
+{
+  private static final int GRID_COLS = 8;
+  private static final int GRID_ROWS = 6;
+  private static final int MAX_CELLS_PER_FRAME = 8;    // detection budget
+
+  // cvGoodFeaturesToTrack() parameters
+  private static final double QUALITY_LEVEL = 0.01;
+  private static final int MIN_DISTANCE = 5;      // between features
+
+  private static final float MAX_TRACK_ERR = 25;   // mean abs. pixel difference
+
+  private static final int FAST_NMS_SIZE = 8;     // FAST non-max suppression square
+
+
+  private int width, height;    // of the image
+  private int cellWidth, cellHeight;
+  private int detectLevel;      // pyramid level used for detection
+  private int scale;            // 2^detectLevel
+  private int cellCap, minPerCell;
+  private float maxMoveSq;      // square of the longest acceptable move
+
+  // the features
+  private int capacity;
+  private int numFeatures = 0;
+  private float[] xs, ys;
+  private int[] ages;           // number of frames each feature has been tracked
+
+  private int[] cellCounts;     // no. of features in each cell
+  private int nextCell = 0;     // where the round-robin top-up starts
+
+  // detection data, big enough for one cell
+  private IplImage eigenIm, tempIm, maskIm;
+  private CvPoint2D32f cellCorners;
+  private int[] cornerCount = new int[1];
+
+  // FAST detection data (null when cvGoodFeaturesToTrack() is used)
+  private FastDetector fastDetector = null;
+  private float[] fastXs, fastYs;
+
+  // statistics for the last frame
+  private int numLost, numOutliers, numCrowded, numAdded;
+
+
+
+  public FeatureManager(int width, int height, int capacity, int maxMove, int detectLevel)
+  /* detectLevel must be a level the PyramidCache has, so the corners are
+     scaled up from the level they were found at */
+  {
+    this.width = width;
+    this.height = height;
+    this.capacity = capacity;
+    maxMoveSq = maxMove*maxMove;
+    this.detectLevel = detectLevel;
+    scale = 1 << detectLevel;
+
+    cellWidth = width/GRID_COLS;
+    cellHeight = height/GRID_ROWS;
+    int numCells = GRID_COLS*GRID_ROWS;
+    cellCap = Math.max(1, (capacity + numCells-1)/numCells);
+    minPerCell = Math.max(1, cellCap/2);
+    cellCounts = new int[numCells];
+
+    xs = new float[capacity];
+    ys = new float[capacity];
+    ages = new int[capacity];
+
+    // the last column and row of cells also contain the remainder pixels
+    int maxCellWidth = (width - (GRID_COLS-1)*cellWidth)/scale + 1;
+    int maxCellHeight = (height - (GRID_ROWS-1)*cellHeight)/scale + 1;
+    eigenIm = IplImage.create(maxCellWidth, maxCellHeight, IPL_DEPTH_32F, 1);
+    tempIm = IplImage.create(maxCellWidth, maxCellHeight, IPL_DEPTH_32F, 1);
+    maskIm = IplImage.create(maxCellWidth, maxCellHeight, IPL_DEPTH_8U, 1);
+    cellCorners = new CvPoint2D32f(cellCap);
+  }  // end of FeatureManager()
+
+
+
+  public void useFAST(int threshold)
+  // find new features with a FastDetector instead of cvGoodFeaturesToTrack()
+  {
+    fastDetector = new FastDetector(width/scale + 1, height/scale + 1,
+                                    threshold, Math.max(2, FAST_NMS_SIZE/scale));
+    fastXs = new float[2*cellCap];    // extra room for candidates that are too close
+    fastYs = new float[2*cellCap];
+  }  // end of useFAST()
+
+
+
+  public void update(float[] newXs, float[] newYs, byte[] found, float[] errs)
+  /* The features have been tracked to (newXs[], newYs[]). Keep the good
+     ones, in the same order, as the features for the next frame. */
+  {
+    numLost = 0;
+    numOutliers = 0;
+    numCrowded = 0;
+    for (int c=0; c < cellCounts.length; c++)
+      cellCounts[c] = 0;
+
+    int n = 0;
+    for (int i=0; i < numFeatures; i++) {
+      float x = newXs[i];
+      float y = newYs[i];
+      if ((found[i] == 0) || (x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+        numLost++;
+        continue;
+      }
+      float dx = x - xs[i];
+      float dy = y - ys[i];
+      if ((errs[i] > MAX_TRACK_ERR) || (dx*dx + dy*dy > maxMoveSq)) {
+        numOutliers++;
+        continue;
+      }
+      int cell = cellIndex(x, y);
+      if (cellCounts[cell] >= cellCap) {   // older features in this cell are kept
+        numCrowded++;
+        continue;
+      }
+      cellCounts[cell]++;
+      xs[n] = x;
+      ys[n] = y;
+      ages[n] = ages[i] + 1;
+      n++;
+    }
+    numFeatures = n;
+  }  // end of update()
+
+
+
+  public void topUp(PyramidCache cache)
+  /* Detect new features in the current frame, in at most MAX_CELLS_PER_FRAME
+     of the cells which have too few features. The detection image is only
+     fetched (and copied by the FAST detector) once a cell needs it. */
+  {
+    IplImage grayIm = null;
+    numAdded = 0;
+    for (int c=0; c < cellCounts.length; c++)
+      cellCounts[c] = 0;
+    for (int i=0; i < numFeatures; i++)
+      cellCounts[ cellIndex(xs[i], ys[i]) ]++;
+
+    int numCells = cellCounts.length;
+    int cellsDone = 0;
+    int n = 0;
+    while ((n < numCells) && (cellsDone < MAX_CELLS_PER_FRAME) && (numFeatures < capacity)) {
+      int cell = (nextCell + n) % numCells;
+      if (cellCounts[cell] < minPerCell) {
+        if (grayIm == null) {
+          grayIm = cache.getGrayLevel(detectLevel);
+          if (fastDetector != null)
+            fastDetector.setImage(grayIm);
+        }
+        if (fastDetector != null)
+          detectFastInCell(grayIm, cell, cellCap - cellCounts[cell]);
+        else
+          detectInCell(grayIm, cell, cellCap - cellCounts[cell]);
+        cellsDone++;
+      }
+      n++;
+    }
+    nextCell = (nextCell + n) % numCells;   // carry on from here next time
+  }  // end of topUp()
+
+
+
+  private void detectInCell(IplImage grayIm, int cell, int maxNew)
+  /* add up to maxNew features found in the cell, away from the existing ones;
+     grayIm may be a coarser pyramid level, so the cell is scaled down to fit it */
+  {
+    int col = cell % GRID_COLS;
+    int row = cell / GRID_COLS;
+    int cx = (col*cellWidth)/scale;      // the cell in grayIm coordinates
+    int cy = (row*cellHeight)/scale;
+    int cw = Math.min( ((col == GRID_COLS-1) ? width : (col+1)*cellWidth)/scale,
+                       grayIm.width()) - cx;
+    int ch = Math.min( ((row == GRID_ROWS-1) ? height : (row+1)*cellHeight)/scale,
+                       grayIm.height()) - cy;
+    int minDist = Math.max(1, MIN_DISTANCE/scale);
+
+    // the mask is white except around the existing features
+    CvRect cellRect = cvRect(0, 0, cw, ch);
+    cvSetImageROI(maskIm, cellRect);
+    cvSet(maskIm, cvScalarAll(255), null);
+    for (int i=0; i < numFeatures; i++) {
+      float x = xs[i]/scale - cx;
+      float y = ys[i]/scale - cy;
+      if ((x > -minDist) && (y > -minDist) && (x < cw+minDist) && (y < ch+minDist))
+        cvCircle(maskIm, cvPoint(Math.round(x), Math.round(y)), minDist,
+                                          cvScalarAll(0), CV_FILLED, 8, 0);
+    }
+
+    cvSetImageROI(grayIm, cvRect(cx, cy, cw, ch));
+    cvSetImageROI(eigenIm, cellRect);
+    cvSetImageROI(tempIm, cellRect);
+    cornerCount[0] = Math.min(maxNew, capacity - numFeatures);
+    cellCorners.position(0);
+    cvGoodFeaturesToTrack(grayIm, eigenIm, tempIm, cellCorners, cornerCount,
+                                QUALITY_LEVEL, minDist, maskIm, 3, 0, 0.04);
+    cvResetImageROI(grayIm);
+    cvResetImageROI(eigenIm);
+    cvResetImageROI(tempIm);
+    cvResetImageROI(maskIm);
+
+    for (int i=0; i < cornerCount[0]; i++) {    // add the corners, in image coordinates
+      cellCorners.position(i);
+      xs[numFeatures] = Math.min((cellCorners.x() + cx)*scale, width-1);
+      ys[numFeatures] = Math.min((cellCorners.y() + cy)*scale, height-1);
+      ages[numFeatures] = 0;
+      numFeatures++;
+    }
+    cellCorners.position(0);
+    numAdded += cornerCount[0];
+  }  // end of detectInCell()
+
+
+
+  private void detectFastInCell(IplImage grayIm, int cell, int maxNew)
+  /* add up to maxNew FAST corners found in the cell, skipping those close to
+     existing features; the cell is scaled down to fit grayIm as in detectInCell() */
+  {
+    int col = cell % GRID_COLS;
+    int row = cell / GRID_COLS;
+    int cx = (col*cellWidth)/scale;
+    int cy = (row*cellHeight)/scale;
+    int cw = Math.min( ((col == GRID_COLS-1) ? width : (col+1)*cellWidth)/scale,
+                       grayIm.width()) - cx;
+    int ch = Math.min( ((row == GRID_ROWS-1) ? height : (row+1)*cellHeight)/scale,
+                       grayIm.height()) - cy;
+    float minDistSq = MIN_DISTANCE*MIN_DISTANCE;
+
+    int numOld = numFeatures;
+    int numFound = fastDetector.detect(cx, cy, cw, ch, fastXs.length, fastXs, fastYs);
+    for (int i=0; (i < numFound) && (numFeatures-numOld < maxNew) && (numFeatures < capacity); i++) {
+      float x = Math.min(fastXs[i]*scale, width-1);    // in image coordinates
+      float y = Math.min(fastYs[i]*scale, height-1);
+      boolean isClose = false;
+      for (int j=0; j < numOld; j++) {
+        float dx = xs[j] - x;
+        float dy = ys[j] - y;
+        if (dx*dx + dy*dy < minDistSq) {
+          isClose = true;
+          break;
+        }
+      }
+      if (!isClose) {
+        xs[numFeatures] = x;
+        ys[numFeatures] = y;
+        ages[numFeatures] = 0;
+        numFeatures++;
+      }
+    }
+    numAdded += numFeatures - numOld;
+  }  // end of detectFastInCell()
+
+
+
+  private int cellIndex(float x, float y)
+  {
+    int col = Math.min((int)x / cellWidth, GRID_COLS-1);
+    int row = Math.min((int)y / cellHeight, GRID_ROWS-1);
+    return row*GRID_COLS + col;
+  }  // end of cellIndex()
+
+
+
+  public int getNumFeatures()
+  {  return numFeatures;  }
+
+  public float[] getXs()
+  {  return xs;  }
+
+  public float[] getYs()
+  {  return ys;  }
+
+  public int[] getAges()
+  {  return ages;  }
+
+
+
+  public String getStats()
+  // a summary of the last update() and topUp()
+  {
+    long totalAge = 0;
+    for (int i=0; i < numFeatures; i++)
+      totalAge += ages[i];
+    double meanAge = (numFeatures == 0) ? 0 : ((double) totalAge)/numFeatures;
+    return String.format("Features: %d (mean age %.1f); lost: %d, outliers: %d, crowded: %d, added: %d",
+                       numFeatures, meanAge, numLost, numOutliers, numCrowded, numAdded);
+  }  // end of getStats()
+
+
+}  // end of FeatureManager class
@@ -0,0 +1,181 @@
+
+// ImagePyramid.java
+
+/* A level of detail pyramid for a grayscale image, stored as flat float
+   arrays (one per level, row by row, with no padding). Level 0 is the
+   image itself, and each level above it is half the width and height
+   of the one below, made by a 5x5 Gaussian blur and subsampling
+   (the same filter as cvPyrDown()). The x- and y- gradients of every level
+   (central differences) are also stored, since LKTracker needs them for
+   the windows around its points.
+
+   The arrays are allocated once, and refilled by each call to build(),
+   so a pyramid can be reused for every frame of the same size. Only the
+   levels up to the one asked for are filled, since LK may be using fewer
+   than were allocated; extend() fills more of them later if necessary.
+
+   Used by LKTracker, which is a Java version of cvCalcOpticalFlowPyrLK().
+*/
+
+import java.nio.*;
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class ImagePyramid
+{
+  private int numLevels;       // allocated
+  private int numBuilt = 0;    // filled for the current image
+  private float[][] levels;
+  private float[][] gradXs, gradYs;
+  private int[] widths, heights;
+
+  private byte[] rowBytes;   // for copying a row of the IplImage
+  private float[] tempIm;    // vertically blurred rows used by pyrDown()
+
+
+  public ImagePyramid(int width, int height, int maxLevel)
+  /* create levels 0 to maxLevel, stopping early if a level would
+     be smaller than 8 pixels wide or high */
+  {
+    numLevels = 1;
+    int w = width;
+    int h = height;
+    while ((numLevels <= maxLevel) && ((w+1)/2 >= 8) && ((h+1)/2 >= 8)) {
+      w = (w+1)/2;
+      h = (h+1)/2;
+      numLevels++;
+    }
+
+    levels = new float[numLevels][];
+    gradXs = new float[numLevels][];
+    gradYs = new float[numLevels][];
+    widths = new int[numLevels];
+    heights = new int[numLevels];
+    w = width;
+    h = height;
+    for (int i=0; i < numLevels; i++) {
+      widths[i] = w;
+      heights[i] = h;
+      levels[i] = new float[w*h];
+      gradXs[i] = new float[w*h];
+      gradYs[i] = new float[w*h];
+      w = (w+1)/2;
+      h = (h+1)/2;
+    }
+
+    rowBytes = new byte[width];
+    tempIm = new float[width*((height+1)/2)];
+  }  // end of ImagePyramid()
+
+
+
+  public void build(IplImage grayIm, int topLevel)
+  /* fill levels 0 to topLevel of the pyramid from an 8-bit, 1 channel image,
+     which must be the size given to the constructor */
+  {
+    int width = widths[0];
+    int height = heights[0];
+    int step = grayIm.widthStep();
+    ByteBuffer bb = grayIm.getByteBuffer();
+
+    float[] base = levels[0];
+    for (int y=0; y < height; y++) {
+      bb.position(y*step);
+      bb.get(rowBytes, 0, width);
+      int offset = y*width;
+      for (int x=0; x < width; x++)
+        base[offset+x] = rowBytes[x] & 0xFF;
+    }
+
+    numBuilt = 0;     // only the image is in level 0 so far
+    extend(topLevel);
+  }  // end of build()
+
+
+
+  public void extend(int topLevel)
+  // fill any of the levels up to topLevel which haven't been built yet
+  {
+    topLevel = Math.min(topLevel, numLevels-1);
+    for (int i=numBuilt; i <= topLevel; i++) {
+      if (i > 0)
+        pyrDown(levels[i-1], widths[i-1], heights[i-1], levels[i], widths[i], heights[i]);
+      gradients(levels[i], widths[i], heights[i], gradXs[i], gradYs[i]);
+    }
+    numBuilt = Math.max(numBuilt, topLevel+1);
+  }  // end of extend()
+
+
+
+  private void pyrDown(float[] src, int sw, int sh, float[] dst, int dw, int dh)
+  /* blur src with the separable kernel [1 4 6 4 1]/16 in both directions,
+     keeping every second row and column; borders are replicated */
+  {
+    // vertical pass, for every second row only
+    for (int y=0; y < dh; y++) {
+      int sy = 2*y;
+      int r0 = Math.max(sy-2, 0)*sw;
+      int r1 = Math.max(sy-1, 0)*sw;
+      int r2 = sy*sw;
+      int r3 = Math.min(sy+1, sh-1)*sw;
+      int r4 = Math.min(sy+2, sh-1)*sw;
+      int t = y*sw;
+      for (int x=0; x < sw; x++)
+        tempIm[t+x] = src[r0+x] + 4*(src[r1+x] + src[r3+x]) + 6*src[r2+x] + src[r4+x];
+    }
+
+    // horizontal pass, for every second column only
+    for (int y=0; y < dh; y++) {
+      int t = y*sw;
+      int d = y*dw;
+      for (int x=0; x < dw; x++) {
+        int sx = 2*x;
+        float v = tempIm[t + Math.max(sx-2, 0)] +
+                  4*(tempIm[t + Math.max(sx-1, 0)] + tempIm[t + Math.min(sx+1, sw-1)]) +
+                  6*tempIm[t + sx] + tempIm[t + Math.min(sx+2, sw-1)];
+        dst[d+x] = v/256.0f;
+      }
+    }
+  }  // end of pyrDown()
+
+
+
+  private void gradients(float[] im, int w, int h, float[] gx, float[] gy)
+  // central differences, with the borders replicated
+  {
+    for (int y=0; y < h; y++) {
+      int r = y*w;
+      int up = Math.max(y-1, 0)*w;
+      int down = Math.min(y+1, h-1)*w;
+      for (int x=0; x < w; x++) {
+        gx[r+x] = (im[r + Math.min(x+1, w-1)] - im[r + Math.max(x-1, 0)])*0.5f;
+        gy[r+x] = (im[down+x] - im[up+x])*0.5f;
+      }
+    }
+  }  // end of gradients()
+
+
+
+  public int getNumLevels()
+  // the number of levels built for the current image
+  {  return numBuilt;  }
+
+  public float[] getLevel(int i)
+  {  return levels[i];  }
+
+  public float[] getGradX(int i)
+  {  return gradXs[i];  }
+
+  public float[] getGradY(int i)
+  {  return gradYs[i];  }
+
+  public int getWidth(int i)
+  {  return widths[i];  }
+
+  public int getHeight(int i)
+  {  return heights[i];  }
+
+
+}  // end of ImagePyramid class
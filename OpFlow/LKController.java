@@ -0,0 +1,205 @@
+
+// LKController.java
+
+/* Chooses the Lucas-Kanade settings (window size, number of pyramid levels,
+   and maximum iterations) from the recent motion in the scene, instead of
+   always using the same ones.
+
+   The settings are a fixed list of 'tiers', from cheapest (a small window and
+   few levels, good for slow movement) to most expensive (a big window and a
+   deep pyramid, which can follow fast movement). A tier's reach is roughly
+   how far a point can move and still be tracked:
+       winSize * (2^(levels+1) - 1)
+   since each level doubles the distance covered by the one below (winSize
+   is the window's half-size, as in cvCalcOpticalFlowPyrLK() and LKTracker).
+
+   observe() adds the lengths of a frame's tracked moves to a histogram whose
+   counts decay by DECAY each frame, so it describes the last few seconds.
+   The wanted tier is the cheapest one whose reach is at least REACH_MARGIN
+   times the histogram's 90th percentile length. This ignores the largest
+   moves, which are usually tracking errors.
+
+   The tracking time of each tier is averaged (exponentially), and a tier is
+   only used if its average time is within the latency budget. The times
+   of the unused tiers slowly decay, so they are eventually retried. The chosen
+   tier only changes after the wanted tier has been different for
+   CHANGE_FRAMES frames in a row, so the settings don't flicker.
+
+   The chosen settings, the percentile length and the tracking time are
+   available through get methods and getStats().
+*/
+
+
+
+public class LKController
+{
+  // the tiers: {window half-size, pyramid levels, max iterations}
+  private static final int[][] TIERS = {
+    { 5, 1, 8 },
+    { 7, 2, 10 },
+    { 9, 3, 15 },
+    { 11, 4, 20 },
+    { 15, 5, 20 }
+  };
+
+  private static final int MAX_LENGTH = 64;    // histogram covers lengths 0 to MAX_LENGTH-1
+  private static final float DECAY = 0.9f;
+  private static final float PERCENTILE = 0.9f;
+  private static final float REACH_MARGIN = 1.5f;
+  private static final int CHANGE_FRAMES = 5;
+  private static final float TIME_WEIGHT = 0.2f;   // for averaging tracking times
+  private static final float TIME_FORGET = 0.995f;  // decay of unused tiers' times
+
+
+  private float[] lengthCounts = new float[MAX_LENGTH];
+  private int maxLevel;          // limit on the number of levels
+  private double budgetMs;       // tracking time allowed per frame
+
+  private int tier;              // the chosen tier
+  private int wantedTier;
+  private int wantedFrames = 0;  // no. of frames in a row that wantedTier has been wanted
+  private double[] tierTimes = new double[TIERS.length];   // average ms; 0 means unknown
+
+  private int percentileLength = 0;
+  private double lastTimeMs = 0;
+  private int numChanges = 0;
+
+
+
+  public LKController(int maxLevel, double budgetMs)
+  {
+    this.maxLevel = maxLevel;
+    this.budgetMs = budgetMs;
+    tier = TIERS.length/2;    // start in the middle
+    wantedTier = tier;
+  }  // end of LKController()
+
+
+
+  public boolean observe(float[] xsA, float[] ysA, float[] xsB, float[] ysB,
+                                      int numPts, byte[] found, double trackMs)
+  /* Add the moves of the found points from (xsA,ysA) to (xsB,ysB), and the
+     time taken to track them with the current settings. Returns true if
+     the settings have changed. */
+  {
+    for (int i=0; i < MAX_LENGTH; i++)
+      lengthCounts[i] *= DECAY;
+    for (int i=0; i < numPts; i++) {
+      if (found[i] == 0)
+        continue;
+      float dx = xsB[i] - xsA[i];
+      float dy = ysB[i] - ysA[i];
+      int len = (int) Math.sqrt(dx*dx + dy*dy);
+      lengthCounts[ Math.min(len, MAX_LENGTH-1) ]++;
+    }
+
+    lastTimeMs = trackMs;
+    for (int t=0; t < TIERS.length; t++)   // so a slow tier is eventually tried again
+      if (t != tier)
+        tierTimes[t] *= TIME_FORGET;
+    if (tierTimes[tier] == 0)
+      tierTimes[tier] = trackMs;
+    else
+      tierTimes[tier] += TIME_WEIGHT*(trackMs - tierTimes[tier]);
+
+    percentileLength = findPercentile();
+    int newTier = chooseTier(percentileLength);
+    if (newTier == tier)
+      wantedFrames = 0;
+    else if (newTier == wantedTier)
+      wantedFrames++;
+    else {
+      wantedTier = newTier;
+      wantedFrames = 1;
+    }
+
+    if (wantedFrames >= CHANGE_FRAMES) {
+      tier = wantedTier;
+      wantedFrames = 0;
+      numChanges++;
+      return true;
+    }
+    return false;
+  }  // end of observe()
+
+
+
+  private int findPercentile()
+  // the length below which PERCENTILE of the recent moves lie
+  {
+    float total = 0;
+    for (int i=0; i < MAX_LENGTH; i++)
+      total += lengthCounts[i];
+    if (total == 0)
+      return 0;
+
+    float sum = 0;
+    for (int i=0; i < MAX_LENGTH; i++) {
+      sum += lengthCounts[i];
+      if (sum >= PERCENTILE*total)
+        return i;
+    }
+    return MAX_LENGTH-1;
+  }  // end of findPercentile()
+
+
+
+  private int chooseTier(int length)
+  /* the cheapest tier which reaches far enough, or a cheaper one if
+     that one is known to be too slow */
+  {
+    int t = 0;
+    while ((t < TIERS.length-1) && (reach(t) < REACH_MARGIN*length))
+      t++;
+    while ((t > 0) && (tierTimes[t] > budgetMs))
+      t--;
+    return t;
+  }  // end of chooseTier()
+
+
+
+  private int reach(int t)
+  {
+    int levels = Math.min(TIERS[t][1], maxLevel);
+    return TIERS[t][0] * ((1 << (levels+1)) - 1);
+  }
+
+
+
+  // the chosen settings
+
+  public int getWinSize()
+  {  return TIERS[tier][0];  }
+
+  public int getLevels()
+  {  return Math.min(TIERS[tier][1], maxLevel);  }
+
+  public int getMaxIters()
+  {  return TIERS[tier][2];  }
+
+  public int getTier()
+  {  return tier;  }
+
+
+  // metrics
+
+  public int getPercentileLength()
+  {  return percentileLength;  }
+
+  public double getTrackTime()
+  {  return lastTimeMs;  }
+
+  public int getNumChanges()
+  {  return numChanges;  }
+
+
+
+  public String getStats()
+  {
+    return String.format("LK tier %d: win %d, levels %d, iters %d; 90%% move %d px; track %.1f ms (avg %.1f, budget %.1f); changes %d",
+                 tier, getWinSize(), getLevels(), getMaxIters(), percentileLength,
+                 lastTimeMs, tierTimes[tier], budgetMs, numChanges);
+  }  // end of getStats()
+
+
+}  // end of LKController class
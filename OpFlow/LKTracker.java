@@ -0,0 +1,275 @@
+
+// LKTracker.java
+
+/* A pure Java version of cvCalcOpticalFlowPyrLK(): the pyramidal Lucas-Kanade
+   method, as described in:
+      Jean-Yves Bouguet, "Pyramidal Implementation of the Lucas Kanade Feature
+      Tracker: Description of the algorithm", Intel Corporation, 2000
+
+   Each point is tracked from the top (coarsest) level of the pyramids down
+   to level 0, with the flow found at one level doubled to become the initial
+   guess at the next. At each level the point's window in the previous image
+   is compared with the same-sized window in the next image, and the flow is
+   refined iteratively until the termination criteria are met.
+
+   The window size, number of pyramid levels, and termination criteria
+   (max. iterations and epsilon) are the same as the arguments to
+   cvCalcOpticalFlowPyrLK(). As there, winSize is the half-size of a
+   window, so a window is (2*winSize+1) pixels wide and high, and the
+   same settings give the same window with either tracker.
+
+   The images are ImagePyramids, and the points are stored in float arrays.
+   Since a point's window has the same sub-pixel offset for all its pixels,
+   the bilinear interpolation weights are calculated once per window.
+   The points are tracked independently, so they are split into batches
+   which are processed in parallel by a ForkJoinPool.
+*/
+
+import java.util.concurrent.*;
+
+
+
+public class LKTracker
+{
+  private static final int BATCH_SIZE = 32;    // points tracked by one ForkJoin task
+
+  private static final float MIN_EIGEN = 0.01f;
+        /* smallest acceptable (per-pixel) minimum eigenvalue of a window's
+           gradient matrix; smaller means the window has too little texture */
+
+
+  private int winWidth;     // width and height of a window (2*winSize+1)
+  private float halfWin;    // distance from the window center to its edge
+  private int maxLevel;
+  private int maxIters;
+  private float epsSq;      // epsilon squared
+
+  private ForkJoinPool pool;
+
+  // data for the current track() call
+  private ImagePyramid prevPyr, nextPyr;
+  private float[] xsA, ysA, xsB, ysB;
+  private byte[] found;
+  private float[] errs;
+
+
+
+  public LKTracker(int winSize, int maxLevel, int maxIters, double epsilon)
+  {
+    this(winSize, maxLevel, maxIters, epsilon, new ForkJoinPool());
+  }
+
+
+  public LKTracker(int winSize, int maxLevel, int maxIters, double epsilon,
+                                                        ForkJoinPool pool)
+  {
+    this.pool = pool;
+    setParams(winSize, maxLevel, maxIters, epsilon);
+  }  // end of LKTracker()
+
+
+
+  public void setParams(int winSize, int maxLevel, int maxIters, double epsilon)
+  {
+    winWidth = 2*winSize + 1;
+    halfWin = winSize;
+    this.maxLevel = maxLevel;
+    this.maxIters = maxIters;
+    epsSq = (float)(epsilon*epsilon);
+  }  // end of setParams()
+
+
+
+  public void track(ImagePyramid prevPyr, ImagePyramid nextPyr,
+                    float[] xsA, float[] ysA, float[] xsB, float[] ysB,
+                    int numPts, byte[] found, float[] errs)
+  /* Calculate the positions (xsB[], ysB[]) in the next image of the
+     numPts points (xsA[], ysA[]) in the previous image. found[i] is set
+     to 1 if point i was tracked, 0 otherwise; errs[i] is the mean absolute
+     difference between the point's windows in the two images.
+  */
+  {
+    this.prevPyr = prevPyr;
+    this.nextPyr = nextPyr;
+    this.xsA = xsA;
+    this.ysA = ysA;
+    this.xsB = xsB;
+    this.ysB = ysB;
+    this.found = found;
+    this.errs = errs;
+
+    if (numPts > 0)
+      pool.invoke( new TrackTask(0, numPts) );
+  }  // end of track()
+
+
+
+  private class TrackTask extends RecursiveAction
+  // track the points in the index range [start, end)
+  {
+    private static final long serialVersionUID = 1L;
+
+    private int start, end;
+
+    public TrackTask(int start, int end)
+    {  this.start = start;
+       this.end = end;
+    }
+
+    protected void compute()
+    {
+      if (end - start <= BATCH_SIZE) {
+        float[] patch = new float[winWidth*winWidth];   // window in previous image
+        float[] ix = new float[winWidth*winWidth];      // its x- and y- gradients
+        float[] iy = new float[winWidth*winWidth];
+        for (int i = start; i < end; i++)
+          trackPoint(i, patch, ix, iy);
+      }
+      else {
+        int mid = (start + end) >>> 1;
+        invokeAll( new TrackTask(start, mid), new TrackTask(mid, end));
+      }
+    }
+  }  // end of TrackTask class
+
+
+
+  private void trackPoint(int i, float[] patch, float[] ix, float[] iy)
+  /* Problems at a coarse level (the window is outside the image, has too
+     little texture, or moves outside the image) only mean that the level is
+     skipped, as in OpenCV; the point is only lost if they happen at level 0 */
+  {
+    int topLevel = Math.min(maxLevel, Math.min(prevPyr.getNumLevels(), nextPyr.getNumLevels())-1);
+    float gx = 0;   // flow at the current level
+    float gy = 0;
+    int winArea = winWidth*winWidth;
+
+    found[i] = 1;
+    for (int level = topLevel; level >= 0; level--) {
+      if (level < topLevel) {    // scale up the flow found at the level above
+        gx *= 2;
+        gy *= 2;
+      }
+      float scale = 1.0f/(1 << level);
+      float px = xsA[i]*scale;   // point's position in the previous image at this level
+      float py = ysA[i]*scale;
+
+      float[] prevIm = prevPyr.getLevel(level);
+      int pw = prevPyr.getWidth(level);
+      int ph = prevPyr.getHeight(level);
+      float[] nextIm = nextPyr.getLevel(level);
+      int nw = nextPyr.getWidth(level);
+      int nh = nextPyr.getHeight(level);
+
+      if (!inside(px, py, pw, ph)) {
+        if (level == 0)
+          found[i] = 0;
+        continue;
+      }
+
+      // sample the previous window and its gradients; build the gradient matrix
+      sampleWindow(prevIm, pw, px, py, patch);
+      sampleWindow(prevPyr.getGradX(level), pw, px, py, ix);
+      sampleWindow(prevPyr.getGradY(level), pw, px, py, iy);
+      float gxx = 0, gxy = 0, gyy = 0;
+      for (int k = 0; k < winArea; k++) {
+        gxx += ix[k]*ix[k];
+        gxy += ix[k]*iy[k];
+        gyy += iy[k]*iy[k];
+      }
+
+      float det = gxx*gyy - gxy*gxy;
+      float minEig = (gxx + gyy - (float)Math.sqrt((gxx-gyy)*(gxx-gyy) + 4*gxy*gxy))/(2*winArea);
+      if ((minEig < MIN_EIGEN) || (det == 0)) {
+        if (level == 0)
+          found[i] = 0;
+        continue;
+      }
+
+      // iteratively refine the flow at this level
+      for (int iter = 0; iter < maxIters; iter++) {
+        float qx = px + gx;    // point's position in the next image
+        float qy = py + gy;
+        if (!inside(qx, qy, nw, nh)) {
+          if (level == 0)
+            found[i] = 0;
+          break;
+        }
+
+        float bx = 0, by = 0;
+        int x0 = (int)(qx - halfWin);    // window's top-left pixel (>= 0)
+        int y0 = (int)(qy - halfWin);
+        float fx = (qx - halfWin) - x0;
+        float fy = (qy - halfWin) - y0;
+        float w00 = (1-fx)*(1-fy), w01 = fx*(1-fy), w10 = (1-fx)*fy, w11 = fx*fy;
+        int k = 0;
+        for (int wy = 0; wy < winWidth; wy++) {
+          int idx = (y0+wy)*nw + x0;
+          for (int wx = 0; wx < winWidth; wx++, idx++, k++) {
+            float val = w00*nextIm[idx] + w01*nextIm[idx+1] +
+                        w10*nextIm[idx+nw] + w11*nextIm[idx+nw+1];
+            float diff = patch[k] - val;
+            bx += diff*ix[k];
+            by += diff*iy[k];
+          }
+        }
+
+        float deltaX = (gyy*bx - gxy*by)/det;
+        float deltaY = (gxx*by - gxy*bx)/det;
+        gx += deltaX;
+        gy += deltaY;
+        if (deltaX*deltaX + deltaY*deltaY <= epsSq)
+          break;
+      }
+    }
+
+    xsB[i] = xsA[i] + gx;
+    ysB[i] = ysA[i] + gy;
+    if ((found[i] == 1) && !inside(xsB[i], ysB[i], nextPyr.getWidth(0), nextPyr.getHeight(0)))
+      found[i] = 0;
+    errs[i] = (found[i] == 1) ? windowError(i, patch, ix) : 0;
+  }  // end of trackPoint()
+
+
+
+  private float windowError(int i, float[] patch, float[] window)
+  /* mean absolute difference between the previous window (at level 0, which
+     is still in patch[]) and the next window at the tracked position;
+     window[] is scratch space */
+  {
+    sampleWindow(nextPyr.getLevel(0), nextPyr.getWidth(0), xsB[i], ysB[i], window);
+    float err = 0;
+    for (int k = 0; k < window.length; k++)
+      err += Math.abs(patch[k] - window[k]);
+    return err/window.length;
+  }  // end of windowError()
+
+
+
+  private boolean inside(float x, float y, int w, int h)
+  /* is the point inside the image, leaving room for a window and
+     the extra pixel used by bilinear interpolation? */
+  {  return (x >= halfWin) && (y >= halfWin) && (x < w-1-halfWin) && (y < h-1-halfWin);  }
+
+
+
+  private void sampleWindow(float[] im, int w, float x, float y, float[] window)
+  /* copy the window centered on (x,y) into window[], using bilinear
+     interpolation; the window must be inside the image */
+  {
+    int x0 = (int)(x - halfWin);
+    int y0 = (int)(y - halfWin);
+    float fx = (x - halfWin) - x0;
+    float fy = (y - halfWin) - y0;
+    float w00 = (1-fx)*(1-fy), w01 = fx*(1-fy), w10 = (1-fx)*fy, w11 = fx*fy;
+
+    int k = 0;
+    for (int wy = 0; wy < winWidth; wy++) {
+      int idx = (y0+wy)*w + x0;
+      for (int wx = 0; wx < winWidth; wx++, idx++, k++)
+        window[k] = w00*im[idx] + w01*im[idx+1] + w10*im[idx+w] + w11*im[idx+w+1];
+    }
+  }  // end of sampleWindow()
+
+
+}  // end of LKTracker class
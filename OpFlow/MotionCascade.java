@@ -0,0 +1,303 @@
+// MotionCascade.java
+
+/* Decides which of three motion detectors of rising cost should run on each
+   part of each frame:
+     * DIFF - frame differencing (as in JCVMotionDetector), on every frame
+     * MOG  - MOG2 background subtraction (as in MogCog)
+     * LK   - Lucas-Kanade tracking of the features (OpticalFlowMove)
+
+   The image is split into CELL_SIZE x CELL_SIZE cells, and each cell has a
+   level (one of the tiers). The frame difference counts the changed pixels
+   in each cell; a cell which has changed for SUSTAIN_FRAMES frames in a row
+   is escalated from DIFF to MOG. A MOG cell whose MOG foreground mask
+   covers at least MIN_FG_FRACTION of it is escalated to LK. A cell with no
+   evidence of motion (from the difference or the mask) for QUIET_FRAMES
+   frames drops back down one level. Without MOG (useMOG false), cells go
+   straight from DIFF to LK.
+
+   MOG2 is run on pyramid level MOG_LEVEL (half size, so a quarter of the
+   cost), on every frame while any cell is above DIFF. While nothing is
+   moving, it is still run every MOG_IDLE_PERIOD frames, with a faster
+   learning rate, so that its background is up to date when it's needed.
+   LK is only run for the features inside LK cells (see inTrackedCell()),
+   and not at all if there are none.
+
+   The time spent in each tier is recorded (LK's, which includes finding new
+   corners, by OpticalFlowMove with addTime()), and getStats() reports how
+   often each tier ran, its average cost, and its share of the total. The
+   idle MOG2 updates are reported on their own, as MOG upkeep, since they
+   are paid even while nothing moves.
+*/
+
+import java.nio.*;
+import java.util.*;
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+import com.googlecode.javacv.cpp.opencv_video.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class MotionCascade
+{
+  // the tiers, which are also the cell levels
+  public static final int DIFF = 0;
+  public static final int MOG = 1;
+  public static final int LK = 2;
+  private static final String[] TIER_NAMES = { "diff", "MOG", "LK" };
+
+  private static final int CELL_SIZE = 32;        // pixels
+  private static final int DIFF_THRESHOLD = 25;   // for a changed pixel
+  private static final double MIN_CHANGED_FRACTION = 0.02;   // of a cell, for motion
+  private static final double MIN_FG_FRACTION = 0.05;   // of a cell, for MOG foreground
+  private static final int SUSTAIN_FRAMES = 3;    // of changes, before escalating
+  private static final int QUIET_FRAMES = 30;     // without motion, before de-escalating
+
+  private static final int MOG_LEVEL = 1;         // pyramid level used by MOG2
+  private static final int MOG_HISTORY = 300;
+  private static final float MOG_VAR_THRESHOLD = 16;
+  private static final int MOG_IDLE_PERIOD = 10;  // frames between idle updates
+  private static final double MOG_IDLE_RATE = 0.03;   // learning rate for idle updates
+
+
+  private int width, height;
+  private int gridCols, gridRows;
+
+  // per cell
+  private int[] levels;
+  private int[] changedCounts;    // changed pixels in this frame
+  private int[] changedRuns;      // frames in a row with changes
+  private int[] quietRuns;        // frames in a row without motion
+  private int[] fgCounts;         // MOG foreground pixels (at MOG_LEVEL)
+  private int minChanged, minFg;
+
+  // MOG2, null if not used
+  private BackgroundSubtractorMOG2 mog = null;
+  private IplImage fgMask = null;     // made by the first mogCells()
+  private byte[] fgPixels;
+  private boolean mogRan;        // in this frame
+
+  private int[] numAtLevel = new int[3];    // cells at each level
+  private int frameCount = 0;
+
+  // stats for each tier
+  private long[] tierNanos = new long[3];
+  private int[] tierRuns = new int[3];
+  private long upkeepNanos = 0;     // idle MOG2 updates
+  private int upkeepRuns = 0;
+
+  private CvPoint corner1 = new CvPoint();    // for drawCells()
+  private CvPoint corner2 = new CvPoint();
+
+
+
+  public MotionCascade(int width, int height, boolean useMOG)
+  {
+    this.width = width;
+    this.height = height;
+    gridCols = (width + CELL_SIZE - 1) / CELL_SIZE;
+    gridRows = (height + CELL_SIZE - 1) / CELL_SIZE;
+    int numCells = gridCols * gridRows;
+    levels = new int[numCells];
+    changedCounts = new int[numCells];
+    changedRuns = new int[numCells];
+    quietRuns = new int[numCells];
+    fgCounts = new int[numCells];
+    numAtLevel[DIFF] = numCells;
+
+    minChanged = (int) Math.round(MIN_CHANGED_FRACTION * CELL_SIZE * CELL_SIZE);
+    int mogCell = CELL_SIZE >> MOG_LEVEL;
+    minFg = (int) Math.round(MIN_FG_FRACTION * mogCell * mogCell);
+
+    if (useMOG)
+      mog = new BackgroundSubtractorMOG2(MOG_HISTORY, MOG_VAR_THRESHOLD, false);
+  }  // end of MotionCascade()
+
+
+
+  public void update(PyramidCache cache)
+  /* run the DIFF tier (and the MOG tier if needed) on the cache's latest
+     pair of frames, and change the cells' levels */
+  {
+    frameCount++;
+    long start = System.nanoTime();
+    diffCells(cache.getPrevPixels(), cache.getCurrPixels());
+    addTime(DIFF, System.nanoTime() - start);
+
+    mogRan = false;
+    if (mog != null) {
+      boolean isNeeded = (numAtLevel[MOG] + numAtLevel[LK] > 0);
+      if (isNeeded || (frameCount % MOG_IDLE_PERIOD == 0)) {
+        start = System.nanoTime();
+        mogCells(cache.getGrayLevel(MOG_LEVEL), isNeeded ? -1 : MOG_IDLE_RATE);
+        if (isNeeded)
+          addTime(MOG, System.nanoTime() - start);
+        else {      // only keeping the background up to date
+          upkeepNanos += System.nanoTime() - start;
+          upkeepRuns++;
+        }
+        mogRan = true;
+      }
+    }
+    updateLevels();
+  }  // end of update()
+
+
+
+  private void diffCells(byte[] prev, byte[] curr)
+  // count the changed pixels in each cell
+  {
+    Arrays.fill(changedCounts, 0);
+    for (int y=0; y < height; y++) {
+      int rowCell = (y / CELL_SIZE) * gridCols;
+      int i = y * width;
+      for (int x=0; x < width; x++, i++) {
+        int d = (curr[i] & 0xFF) - (prev[i] & 0xFF);
+        if ((d > DIFF_THRESHOLD) || (d < -DIFF_THRESHOLD))
+          changedCounts[rowCell + x / CELL_SIZE]++;
+      }
+    }
+  }  // end of diffCells()
+
+
+
+  private void mogCells(IplImage gray, double learningRate)
+  // update MOG2 with the frame, and count the foreground pixels in each cell
+  {
+    if (fgMask == null) {    // the same size as the pyramid level
+      fgMask = IplImage.create(gray.width(), gray.height(), IPL_DEPTH_8U, 1);
+      fgPixels = new byte[gray.width() * gray.height()];
+    }
+    mog.apply(gray, fgMask, learningRate);
+
+    int w = fgMask.width();
+    int h = fgMask.height();
+    int step = fgMask.widthStep();
+    ByteBuffer bb = fgMask.getByteBuffer();
+    for (int y=0; y < h; y++) {
+      bb.position(y*step);
+      bb.get(fgPixels, y*w, w);
+    }
+
+    Arrays.fill(fgCounts, 0);
+    int mogCell = CELL_SIZE >> MOG_LEVEL;
+    for (int y=0; y < h; y++) {
+      int rowCell = (y / mogCell) * gridCols;
+      int i = y * w;
+      for (int x=0; x < w; x++, i++) {
+        if (fgPixels[i] != 0)
+          fgCounts[rowCell + x / mogCell]++;
+      }
+    }
+  }  // end of mogCells()
+
+
+
+  private void updateLevels()
+  {
+    for (int c=0; c < levels.length; c++) {
+      boolean hasChanged = (changedCounts[c] >= minChanged);
+      boolean isForeground = mogRan && (fgCounts[c] >= minFg);
+      changedRuns[c] = hasChanged ? changedRuns[c]+1 : 0;
+      quietRuns[c] = (hasChanged || isForeground) ? 0 : quietRuns[c]+1;
+
+      int level = levels[c];
+      if (level == DIFF) {
+        if (changedRuns[c] >= SUSTAIN_FRAMES)
+          level = (mog != null) ? MOG : LK;
+      }
+      else if ((level == MOG) && isForeground)
+        level = LK;
+      else if (quietRuns[c] >= QUIET_FRAMES) {
+        level = ((level == LK) && (mog != null)) ? MOG : DIFF;
+        quietRuns[c] = 0;     // wait again before the next level down
+      }
+
+      if (level != levels[c]) {
+        numAtLevel[levels[c]]--;
+        numAtLevel[level]++;
+        levels[c] = level;
+      }
+    }
+  }  // end of updateLevels()
+
+
+
+  public boolean isTracking()
+  // true if there are any LK cells
+  {  return (numAtLevel[LK] > 0);  }
+
+
+  public boolean inTrackedCell(float x, float y)
+  // true if (x,y) is in an LK cell
+  {
+    int col = (int) x / CELL_SIZE;
+    int row = (int) y / CELL_SIZE;
+    if ((x < 0) || (y < 0) || (col >= gridCols) || (row >= gridRows))
+      return false;
+    return (levels[row*gridCols + col] == LK);
+  }  // end of inTrackedCell()
+
+
+  public int getNumCells(int level)
+  {  return numAtLevel[level];  }
+
+
+
+  public void addTime(int tier, long nanos)
+  // record a run of a tier
+  {
+    tierNanos[tier] += nanos;
+    tierRuns[tier]++;
+  }
+
+
+
+  public String getStats()
+  /* for each tier (and the MOG upkeep): the percentage of frames it ran on,
+     its average time per run, and its share of the total time */
+  {
+    long total = tierNanos[DIFF] + tierNanos[MOG] + tierNanos[LK] + upkeepNanos;
+    StringBuilder sb = new StringBuilder("Cascade (" + frameCount + " frames):");
+    for (int t=0; t < 3; t++) {
+      if ((t == MOG) && (mog == null))
+        continue;
+      sb.append( timeStats(TIER_NAMES[t], tierNanos[t], tierRuns[t], total) );
+      if (t == MOG)
+        sb.append( timeStats("MOG upkeep", upkeepNanos, upkeepRuns, total) );
+    }
+    sb.append(" cells: " + numAtLevel[MOG] + " MOG, " + numAtLevel[LK] + " LK");
+    return sb.toString();
+  }  // end of getStats()
+
+
+
+  private String timeStats(String name, long nanos, int runs, long total)
+  {
+    double avgMs = (runs == 0) ? 0 : nanos / (1000000.0 * runs);
+    return String.format(" %s %d%% of frames, %.2f ms, %d%% of time;",
+                  name, (100 * runs) / Math.max(1, frameCount), avgMs,
+                  (total == 0) ? 0 : (int) ((100 * nanos) / total));
+  }  // end of timeStats()
+
+
+
+  public void drawCells(IplImage im)
+  // outline the MOG cells in cyan, and the LK cells in green
+  {
+    for (int row=0; row < gridRows; row++) {
+      for (int col=0; col < gridCols; col++) {
+        int level = levels[row*gridCols + col];
+        if (level == DIFF)
+          continue;
+        corner1.x(col*CELL_SIZE).y(row*CELL_SIZE);
+        corner2.x( Math.min((col+1)*CELL_SIZE, width) - 1 ).y(
+                   Math.min((row+1)*CELL_SIZE, height) - 1 );
+        cvRectangle(im, corner1, corner2,
+                    (level == LK) ? CvScalar.GREEN : CvScalar.CYAN, 1, 8, 0);
+      }
+    }
+  }  // end of drawCells()
+
+}  // end of MotionCascade class
@@ -0,0 +1,261 @@
+
+// MotionClusterer.java
+
+/* Groups a frame's directions into several moving objects, so that (for
+   example) two people walking in different directions give two groups rather
+   than one COG that wanders between them.
+
+   Each direction is put into a bucket given by the grid cell (CELL_SIZE x
+   CELL_SIZE pixels) containing its midpoint, and its DirectionHistogram angle
+   bin. A bucket stores its count and the sums of its midpoints and moves.
+   Buckets with at least MIN_BUCKET_DIRS directions are then joined into
+   groups: two such buckets are in the same group if their cells are
+   neighbours (including diagonally) and their angle bins differ by at most
+   one. This is like DBSCAN with a spatial hash, but works on buckets
+   instead of individual directions, so the cost of the joining step
+   depends on the number of occupied buckets rather than on the number of
+   directions.
+
+   Each group has a size (no. of directions), a centroid (the mean midpoint),
+   and a velocity (the mean move, in pixels per frame). Groups with fewer
+   than MIN_GROUP_DIRS directions are ignored, and at most MAX_GROUPS
+   groups are kept (the biggest ones).
+
+   All the arrays are allocated once, and only the buckets used in a frame
+   are cleared afterwards.
+*/
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class MotionClusterer
+{
+  public static final int MAX_GROUPS = 8;
+
+  private static final int CELL_SIZE = 32;       // pixels
+  private static final int MIN_BUCKET_DIRS = 2;
+  private static final int MIN_GROUP_DIRS = 6;
+
+  private static final int NUM_BINS = DirectionHistogram.NUM_BINS;
+
+
+  private int gridCols, gridRows;
+
+  // bucket data, indexed by (row*gridCols + col)*NUM_BINS + bin
+  private int[] bucketCounts;
+  private long[] bucketSumXs, bucketSumYs;    // of midpoints
+  private long[] bucketSumDxs, bucketSumDys;  // of moves
+  private int[] bucketLabels;                 // group of each bucket; -1 for none
+
+  private int[] usedBuckets;    // the non-empty buckets
+  private int numUsed = 0;
+  private int[] stack;          // for joining buckets into groups
+
+  // the groups, biggest first
+  private int numGroups = 0;
+  private int[] groupSizes = new int[MAX_GROUPS];
+  private int[] groupXs = new int[MAX_GROUPS];
+  private int[] groupYs = new int[MAX_GROUPS];
+  private float[] groupVxs = new float[MAX_GROUPS];
+  private float[] groupVys = new float[MAX_GROUPS];
+
+  // reused when drawing
+  private CvPoint center = new CvPoint();
+  private CvPoint end = new CvPoint();
+
+
+
+  public MotionClusterer(int width, int height)
+  {
+    gridCols = (width + CELL_SIZE-1)/CELL_SIZE;
+    gridRows = (height + CELL_SIZE-1)/CELL_SIZE;
+    int numBuckets = gridCols*gridRows*NUM_BINS;
+
+    bucketCounts = new int[numBuckets];
+    bucketSumXs = new long[numBuckets];
+    bucketSumYs = new long[numBuckets];
+    bucketSumDxs = new long[numBuckets];
+    bucketSumDys = new long[numBuckets];
+    bucketLabels = new int[numBuckets];
+    for (int i=0; i < numBuckets; i++)
+      bucketLabels[i] = -1;
+
+    usedBuckets = new int[numBuckets];
+    stack = new int[numBuckets];
+  }  // end of MotionClusterer()
+
+
+
+  public int cluster(DirectionHistogram dirs)
+  // group the directions; returns the number of groups
+  {
+    fillBuckets(dirs);
+
+    numGroups = 0;
+    for (int u=0; u < numUsed; u++) {
+      int b = usedBuckets[u];
+      if ((bucketLabels[b] == -1) && (bucketCounts[b] >= MIN_BUCKET_DIRS))
+        joinBuckets(b);
+    }
+
+    clearBuckets();
+    return numGroups;
+  }  // end of cluster()
+
+
+
+  private void fillBuckets(DirectionHistogram dirs)
+  {
+    int[] x0s = dirs.getX0s();
+    int[] y0s = dirs.getY0s();
+    int[] x1s = dirs.getX1s();
+    int[] y1s = dirs.getY1s();
+    int[] bins = dirs.getBins();
+
+    numUsed = 0;
+    int numDirs = dirs.getNumDirs();
+    for (int i=0; i < numDirs; i++) {
+      int midX = (x0s[i] + x1s[i])/2;
+      int midY = (y0s[i] + y1s[i])/2;
+      int col = Math.max(0, Math.min(midX/CELL_SIZE, gridCols-1));
+      int row = Math.max(0, Math.min(midY/CELL_SIZE, gridRows-1));
+      int b = (row*gridCols + col)*NUM_BINS + bins[i];
+      if (bucketCounts[b] == 0)
+        usedBuckets[numUsed++] = b;
+      bucketCounts[b]++;
+      bucketSumXs[b] += midX;
+      bucketSumYs[b] += midY;
+      bucketSumDxs[b] += x1s[i] - x0s[i];
+      bucketSumDys[b] += y1s[i] - y0s[i];
+    }
+  }  // end of fillBuckets()
+
+
+
+  private void joinBuckets(int start)
+  /* find all the buckets connected to the start bucket, and
+     store them as a group if it is big enough */
+  {
+    int label = numGroups;   // a group index, if the group is kept
+    int size = 0;
+    long sumX = 0, sumY = 0, sumDx = 0, sumDy = 0;
+
+    int top = 0;
+    stack[top++] = start;
+    bucketLabels[start] = label;
+    while (top > 0) {
+      int b = stack[--top];
+      size += bucketCounts[b];
+      sumX += bucketSumXs[b];
+      sumY += bucketSumYs[b];
+      sumDx += bucketSumDxs[b];
+      sumDy += bucketSumDys[b];
+
+      int bin = b % NUM_BINS;
+      int cell = b / NUM_BINS;
+      int col = cell % gridCols;
+      int row = cell / gridCols;
+      for (int r = Math.max(row-1, 0); r <= Math.min(row+1, gridRows-1); r++) {
+        for (int c = Math.max(col-1, 0); c <= Math.min(col+1, gridCols-1); c++) {
+          int base = (r*gridCols + c)*NUM_BINS;
+          for (int db = -1; db <= 1; db++) {
+            int nb = base + (bin + db + NUM_BINS) % NUM_BINS;   // angle bins wrap around
+            if ((bucketLabels[nb] == -1) && (bucketCounts[nb] >= MIN_BUCKET_DIRS)) {
+              bucketLabels[nb] = label;
+              stack[top++] = nb;
+            }
+          }
+        }
+      }
+    }
+
+    if (size >= MIN_GROUP_DIRS)
+      addGroup(size, (int)(sumX/size), (int)(sumY/size),
+                     ((float)sumDx)/size, ((float)sumDy)/size);
+  }  // end of joinBuckets()
+
+
+
+  private void addGroup(int size, int x, int y, float vx, float vy)
+  // insert the group so the groups stay in decreasing order of size
+  {
+    int pos = numGroups;
+    while ((pos > 0) && (groupSizes[pos-1] < size))
+      pos--;
+    if (pos == MAX_GROUPS)   // too small to keep
+      return;
+
+    int last = Math.min(numGroups, MAX_GROUPS-1);
+    for (int i = last; i > pos; i--) {
+      groupSizes[i] = groupSizes[i-1];
+      groupXs[i] = groupXs[i-1];
+      groupYs[i] = groupYs[i-1];
+      groupVxs[i] = groupVxs[i-1];
+      groupVys[i] = groupVys[i-1];
+    }
+    groupSizes[pos] = size;
+    groupXs[pos] = x;
+    groupYs[pos] = y;
+    groupVxs[pos] = vx;
+    groupVys[pos] = vy;
+    if (numGroups < MAX_GROUPS)
+      numGroups++;
+  }  // end of addGroup()
+
+
+
+  private void clearBuckets()
+  {
+    for (int u=0; u < numUsed; u++) {
+      int b = usedBuckets[u];
+      bucketCounts[b] = 0;
+      bucketSumXs[b] = 0;
+      bucketSumYs[b] = 0;
+      bucketSumDxs[b] = 0;
+      bucketSumDys[b] = 0;
+      bucketLabels[b] = -1;
+    }
+    numUsed = 0;
+  }  // end of clearBuckets()
+
+
+
+  // the groups found by the last cluster() call, biggest first
+
+  public int getNumGroups()
+  {  return numGroups;  }
+
+  public int getGroupSize(int i)
+  {  return groupSizes[i];  }
+
+  public int getGroupX(int i)
+  {  return groupXs[i];  }
+
+  public int getGroupY(int i)
+  {  return groupYs[i];  }
+
+  public float getGroupVx(int i)
+  {  return groupVxs[i];  }
+
+  public float getGroupVy(int i)
+  {  return groupVys[i];  }
+
+
+
+  public void drawGroups(IplImage im)
+  /* draw each group as a yellow circle at its centroid, with a line
+     showing its velocity */
+  {
+    for (int i=0; i < numGroups; i++) {
+      center.x(groupXs[i]).y(groupYs[i]);
+      end.x( Math.round(groupXs[i] + groupVxs[i]) ).y( Math.round(groupYs[i] + groupVys[i]) );
+      cvCircle(im, center, 8, CvScalar.YELLOW, CV_FILLED, CV_AA, 0);
+      cvLine(im, center, end, CvScalar.YELLOW, 2, CV_AA, 0);
+    }
+  }  // end of drawGroups()
+
+
+}  // end of MotionClusterer class
@@ -15,15 +15,53 @@
    an example at
    http://www.ccs.neu.edu/course/cs7380/f10/HW2/examples/c/lkdemo.c
 
-   The main new aspect of this code is the use of an array of lists to group detected 'directions'
+   The main new aspect of this code is the use of a histogram to group detected 'directions'
    by their angle. (A direction is the vector between corresponding corners
-   in consecutive frames.) The longest directions list is used to update a COG point.
+   in consecutive frames.) The biggest histogram bin is used to update a COG point.
    This approach assumes that the movement in the scene is primarily in a single direction.
+   The directions are stored in a DirectionHistogram's preallocated arrays, so
+   no objects are created for them.
 
    Other features of this code:
-     * the drawing of directions as blue arrows;
+     * the optional drawing of directions as blue arrows;
      * the reuse of detected corner information from one frame grabbing iteration to
-       the next, which roughly halves the processing time for an iteration
+       the next, which roughly halves the processing time for an iteration;
+       a FeatureManager drops lost corners, and finds new ones only in the parts
+       of the image that have too few, so cvGoodFeaturesToTrack() is never
+       called for the whole image
+     * the option of tracking with LKTracker, a Java version of cvCalcOpticalFlowPyrLK()
+       that tracks the corners in parallel, so many more corners can be used
+     * a PyramidCache which converts each frame to grayscale and builds its pyramids
+       once; they are reused as the 'previous' data when the next frame arrives
+     * a dense mode, where corners are replaced by a grid of blocks whose motion
+       is found by BlockFlow's block matching; this works on surfaces with
+       too little texture for corners. The block vectors are stored as
+       directions in the same way as tracked corners.
+     * the option of finding corners with a Java FAST-9 detector (FastDetector),
+       which is cheaper than cvGoodFeaturesToTrack()
+     * the option of letting an LKController choose the LK window size, pyramid
+       levels, and iterations from the recent lengths of the moves, within a
+       tracking time budget
+     * the option of grouping the directions into several moving objects with
+       a MotionClusterer, each drawn as a yellow circle and velocity line
+     * the option of a MotionCascade, which runs cheap frame differencing on
+       every frame, and escalates parts of the image with sustained motion to
+       MOG2 and then to LK tracking; only the corners in those parts are
+       tracked, and while nothing moves no corners are tracked or looked for
+
+   Command line options:
+      -javalk       track the corners with LKTracker instead of cvCalcOpticalFlowPyrLK()
+      -corners n    the maximum number of corners (default: MAX_CORNERS)
+      -detect n     find new corners at pyramid level n (default: 0, full size)
+      -fast [t]     find new corners with FastDetector, using threshold t
+                    (default: FastDetector.THRESHOLD)
+      -arrows       draw the directions as arrows (a debugging overlay)
+      -dense n      use BlockFlow with n x n pixel blocks (8 or 16) instead of corners
+      -groups       draw the moving groups found by MotionClusterer
+      -adapt [ms]   adapt the LK settings, keeping tracking within ms milliseconds
+                    (default: TRACK_BUDGET)
+      -cascade [nomog]  only track the corners where MotionCascade has seen
+                    motion; with nomog, cells go from differencing straight to LK
 
 
    OpenCV API docs:
@@ -57,25 +95,86 @@ public class OpticalFlowMove
 {
   private static final int DELAY = 100;    // ms
 
-  private static final int WIN_SIZE = 10;   // size of search window (smaller means faster)
+  private static final int WIN_SIZE = 10;   // half-size of search window, so 21x21 (smaller means faster)
+  private static final int MAX_LEVEL = 5;   // no of levels in the pyramids
+  private static final int MAX_ITERS = 20;  // LK termination criteria
+  private static final double EPSILON = 0.3;
   private static final int MAX_CORNERS = 300;
+  private static final double TRACK_BUDGET = 20;   // ms, for LKController
+  private static final int STATS_PERIOD = 100;     // frames between cascade reports
 
   private static final int MIN_DIR_LENGTH = 15;
+  private static final int MIN_BLOCK_DIR_LENGTH = 3;
+     /* for BlockFlow's vectors, which are mostly shorter than MIN_DIR_LENGTH
+        (its search reaches +/-15 pixels from a prediction); small noisy
+        vectors are already rejected by BlockFlow's MIN_GAIN test */
 
-  // group directions into lists based on their angles
-  private static final int ANGLE_RANGE = 20;     // degree range for each list
-  private static final int NUM_ANGLE_LISTS = 360/ANGLE_RANGE;   // number of lists
-
-  private static final int MIN_DIRS_IN_LIST = 5;  
+  private static final int MIN_DIRS_IN_LIST = 5;    // in the biggest histogram bin
 
   private static final int MAX_WITHOUT_DIRS = 30; // iterations before COG disappears
 
   private static int noDirsCount = 0;
   private static int width, height;   // of a grabbed image
 
+  private static boolean showArrows = false;
+  private static MotionClusterer clusterer = null;   // null means no grouping
+
 
   public static void main(String[] args) throws Exception 
   {
+    boolean useJavaLK = false;
+    int maxCorners = MAX_CORNERS;
+    int detectLevel = 0;
+    boolean showGroups = false;
+    double trackBudget = 0;     // 0 means that the LK settings are fixed
+    int blockSize = 0;     // 0 means that corners are tracked
+    int fastThreshold = 0;    // 0 means that cvGoodFeaturesToTrack() is used
+    boolean useCascade = false;
+    boolean useMOG = true;      // in the cascade
+    for (int i=0; i < args.length; i++) {
+      if (args[i].equals("-javalk"))
+        useJavaLK = true;
+      else if (args[i].equals("-corners") && (i < args.length-1))
+        maxCorners = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-detect") && (i < args.length-1))
+        detectLevel = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-arrows"))
+        showArrows = true;
+      else if (args[i].equals("-fast")) {
+        fastThreshold = FastDetector.THRESHOLD;
+        if ((i < args.length-1) && !args[i+1].startsWith("-"))
+          fastThreshold = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-adapt")) {
+        trackBudget = TRACK_BUDGET;
+        if ((i < args.length-1) && !args[i+1].startsWith("-"))
+          trackBudget = Double.parseDouble(args[++i]);
+      }
+      else if (args[i].equals("-groups"))
+        showGroups = true;
+      else if (args[i].equals("-dense") && (i < args.length-1)) {
+        blockSize = Integer.parseInt(args[++i]);
+        if ((blockSize != 8) && (blockSize != 16)) {
+          System.out.println("-dense block size must be 8 or 16");
+          return;
+        }
+      }
+      else if (args[i].equals("-cascade")) {
+        useCascade = true;
+        if ((i < args.length-1) && args[i+1].equals("nomog")) {
+          useMOG = false;
+          i++;
+        }
+      }
+      else
+        System.out.println("Unknown option: " + args[i]);
+    }
+    if ((detectLevel < 0) || (detectLevel > MAX_LEVEL)) {
+      // the cache only has levels 0 to MAX_LEVEL
+      detectLevel = Math.max(0, Math.min(detectLevel, MAX_LEVEL));
+      System.out.println("-detect level must be 0 to " + MAX_LEVEL + "; using " + detectLevel);
+    }
+
     // Preload the opencv_objdetect module to work around a known
     Loader.load(opencv_objdetect.class);
 
@@ -91,113 +190,244 @@ public class OpticalFlowMove
     height = grab.height();
     grabCanvas.showImage(grab);
 
-    IplImage prevGray = toGray(grab);
-
-    // create data structures for feature detection and optical flow
-    IplImage eigenIm = IplImage.create(width, height, IPL_DEPTH_32F, 1);
-    IplImage tempIm = IplImage.create(width, height, IPL_DEPTH_32F, 1);
-
-    // (image) buffers for pyramids
-    IplImage pyramidA = IplImage.create(width+8, height/3, IPL_DEPTH_32F, 1);
-    IplImage pyramidB = IplImage.create(width+8, height/3, IPL_DEPTH_32F, 1);
-
-    int[] cornerCount = { MAX_CORNERS };
-    CvPoint2D32f cornersA = new CvPoint2D32f(MAX_CORNERS);     // used as an array in JavaCV
-    CvPoint2D32f cornersB = new CvPoint2D32f(MAX_CORNERS);
-    boolean findCorners = true;
-
-    byte[] cornersFound = new byte[MAX_CORNERS];
-    float[] trackErrs = new float[MAX_CORNERS];
-
-    int plk_flags = 0;
+    // grayscale images and pyramids for the current and previous frames
+    PyramidCache cache = new PyramidCache(width, height, MAX_LEVEL);
+    cache.nextFrame(grab);
+
+    // the LK settings, which may be changed by an LKController
+    int winSize = WIN_SIZE;
+    int numLevels = MAX_LEVEL;
+    int maxIters = MAX_ITERS;
+
+    // corner mode: data structures for feature detection and optical flow
+    FeatureManager features = null;
+    LKController lkController = null;
+    LKTracker lkTracker = null;
+    CvPoint2D32f cornersA = null;     // used as arrays in JavaCV
+    CvPoint2D32f cornersB = null;
+    float[] xsB = null;       // the tracked positions of the features' corners
+    float[] ysB = null;
+    byte[] cornersFound = null;
+    float[] trackErrs = null;
+    if (blockSize == 0) {
+      features = new FeatureManager(width, height, maxCorners, width/8, detectLevel);
+      if (fastThreshold > 0)
+        features.useFAST(fastThreshold);
+      features.topUp(cache);
+
+      if (trackBudget > 0) {
+        lkController = new LKController(MAX_LEVEL, trackBudget);
+        winSize = lkController.getWinSize();
+        numLevels = lkController.getLevels();
+        maxIters = lkController.getMaxIters();
+        System.out.println(lkController.getStats());
+      }
+      if (useJavaLK)
+        lkTracker = new LKTracker(winSize, numLevels, maxIters, EPSILON);
+
+      cornersA = new CvPoint2D32f(maxCorners);
+      cornersB = new CvPoint2D32f(maxCorners);
+      xsB = new float[maxCorners];
+      ysB = new float[maxCorners];
+      cornersFound = new byte[maxCorners];
+      trackErrs = new float[maxCorners];
+    }
 
-    CvPoint cogBall = null;    
-         // a null value means that no COG ball will be displayed on screen
+    CvPoint cogBall = new CvPoint();
+    boolean hasCog = false;
+         // false means that no COG ball will be displayed on screen
+
+    // dense mode: one direction for each block
+    BlockFlow blockFlow = null;
+    float[] blockXsA = null;
+    float[] blockYsA = null;
+    float[] blockXsB = null;
+    float[] blockYsB = null;
+    byte[] blocksMoving = null;
+    int numDirs = maxCorners;
+    if (blockSize > 0) {
+      blockFlow = new BlockFlow(width, height, blockSize, width/8);
+      numDirs = blockFlow.getNumBlocks();
+      blockXsA = new float[numDirs];
+      blockYsA = new float[numDirs];
+      blockXsB = new float[numDirs];
+      blockYsB = new float[numDirs];
+      blocksMoving = new byte[numDirs];
+    }
 
+    // cascade mode: the corners in LK cells are tracked in the sub-arrays
+    MotionCascade cascade = null;
+    int[] subIdxs = null;     // the corners' indices in the full arrays
+    float[] subXsA = null;
+    float[] subYsA = null;
+    float[] subXsB = null;
+    float[] subYsB = null;
+    byte[] subFound = null;
+    float[] subErrs = null;
+    if (useCascade) {
+      if (blockSize > 0)
+        System.out.println("-cascade is ignored with -dense");
+      else {
+        cascade = new MotionCascade(width, height, useMOG);
+        subIdxs = new int[maxCorners];
+        subXsA = new float[maxCorners];
+        subYsA = new float[maxCorners];
+        subXsB = new float[maxCorners];
+        subYsB = new float[maxCorners];
+        subFound = new byte[maxCorners];
+        subErrs = new float[maxCorners];
+      }
+    }
 
-    // create direction lists array
-    @SuppressWarnings("unchecked")   // to avoid warnings about using generics in arrays
-    ArrayList<Direction>[] angledDirs = new ArrayList[NUM_ANGLE_LISTS];    
-    for (int i=0; i < NUM_ANGLE_LISTS; i++)
-      angledDirs[i] = new ArrayList<Direction>();
+    DirectionHistogram dirs = new DirectionHistogram(numDirs);
+    if (showGroups)
+      clusterer = new MotionClusterer(width, height);
 
 
     // process the grabbed camera image
     while (grabCanvas.isVisible() && ((grab = grabber.grab()) != null)) {
       long startTime = System.currentTimeMillis();
-      IplImage grayGrab = toGray(grab);
+      cache.nextFrame(grab);   // the old current frame becomes the previous one
 
-      // store interesting corners in the cornersA 'array'
-      cornersA.position(0);            // reset position in array
-      if (findCorners) {
-        cvGoodFeaturesToTrack(prevGray, eigenIm, tempIm, 
-                 cornersA, cornerCount, 0.01, 5, null, 3, 0, 0.04);
-           // min quality level, min distance between corners, 
-           // mask (region of interest), block size, use Harris?, k param for Harris  (OpenCV, p.318)
-        // System.out.println("No of corners to check: " + cornerCount[0]);
+      if (blockFlow != null) {    // dense mode
+        blockFlow.calc(cache.getPrevPixels(), cache.getCurrPixels());
+        int numBlocks = blockFlow.getVectors(blockXsA, blockYsA, blockXsB, blockYsB, blocksMoving);
+        storeDirs(blockXsA, blockYsA, blockXsB, blockYsB, numBlocks, blocksMoving,
+                  MIN_BLOCK_DIR_LENGTH, dirs);
+      }
+      else {
+        // the features were found in, or tracked into, the previous frame
+        int numCorners = features.getNumFeatures();
+        float[] xsA = features.getXs();
+        float[] ysA = features.getYs();
 
 /*
         // improve corners to subpixel level in cornersA; useful when calculating distances
-        cvFindCornerSubPix(prevGray, cornersA, cornerCount[0],
+        cvFindCornerSubPix(cache.getPrevGray(), cornersA, numCorners,
              cvSize(WIN_SIZE, WIN_SIZE),  cvSize(-1, -1),
              cvTermCriteria(CV_TERMCRIT_ITER|CV_TERMCRIT_EPS, 20, 0.3)); // OpenCV p.321
 */
-      }
 
-      cornersA.position(0);   // reset position in arrays
-      cornersB.position(0);
-      /* calculate the new positions of the corners (in cornersB) based on the change of the 
-         corners in cornersA as they 'move' from
-         the previous image (prevGray) to the current image (grayGrab)
-      */
-      cvCalcOpticalFlowPyrLK(prevGray, grayGrab, 
-          pyramidA, pyramidB,
-          cornersA, cornersB, cornerCount[0], 
-          cvSize(WIN_SIZE,WIN_SIZE), 5,    // no of levels in the pyramids
-          cornersFound, trackErrs,
-          cvTermCriteria(CV_TERMCRIT_ITER|CV_TERMCRIT_EPS, 20, 0.3),
-          plk_flags);    // OpenCV, p.330
-
-
-      // store the corner pairs (A --> B) as 'directions'
-      int numDirs = storeDirs(cornersA, cornersB, cornerCount[0], 
-                                            cornersFound, angledDirs, grab);
-      cogBall = updateCOG(cogBall, angledDirs, numDirs);
-      if (cogBall != null)
-        cvCircle(grab, cogBall, 10, CvScalar.RED, CV_FILLED, CV_AA, 0);
+        // the corners to track: all of them, or only those in the cascade's LK cells
+        float[] trXsA = xsA;
+        float[] trYsA = ysA;
+        float[] trXsB = xsB;
+        float[] trYsB = ysB;
+        byte[] trFound = cornersFound;
+        float[] trErrs = trackErrs;
+        int numTracked = numCorners;
+        if (cascade != null) {
+          cascade.update(cache);
+          numTracked = 0;
+          if (cascade.isTracking()) {
+            for (int i=0; i < numCorners; i++) {
+              if (cascade.inTrackedCell(xsA[i], ysA[i])) {
+                subIdxs[numTracked] = i;
+                subXsA[numTracked] = xsA[i];
+                subYsA[numTracked] = ysA[i];
+                numTracked++;
+              }
+            }
+          }
+          trXsA = subXsA;
+          trYsA = subYsA;
+          trXsB = subXsB;
+          trYsB = subYsB;
+          trFound = subFound;
+          trErrs = subErrs;
+        }
 
-      grabCanvas.showImage(grab);
-      prevGray = grayGrab;     // save image as previous for next time around
-
-      if (numDirs > 0) {    // could use cornerCount[0]
-        // swap corners and pyramids data to speed up next call to cvCalcOpticalFlowPyrLK()
-        CvPoint2D32f swapCorners = cornersA;
-        cornersA = cornersB;     // no need to recalculate cornersA next time around
-        cornersB = swapCorners;
-        findCorners = false;
-        
-        IplImage swapPyramid = pyramidA;
-        pyramidA = pyramidB;    // use pyramidB as the 'A' pyramid next time around
-        pyramidB = pyramidA;
-        plk_flags |= CV_LKFLOW_PYR_A_READY;     // pyramid 'A' is ready
-      }
-      else {    // no directions found; so call cvGoodFeaturesToTrack() next time to try to improve matters
-        findCorners = true;
-        cornerCount[0] = MAX_CORNERS;    // reset max no. corners
-        plk_flags = 0;
-      }
+        /* calculate the new positions of the corners (in cornersB) based on the change of the 
+           corners in cornersA as they 'move' from
+           the previous grayscale image to the current one (both held by the cache)
+        */
+        long lkNanos = 0;     // tracking and topping up, for the cascade's LK tier
+        if (numTracked > 0) {
+          /* the previous pyramid is usually left from the last frame, but is
+             built (or given more levels) here if not, so that the timing only
+             includes this frame's pyramid, built to the LK settings' levels */
+          if (useJavaLK)
+            cache.getPrevPyramid(numLevels);
+          long trackStart = System.nanoTime();
+          if (useJavaLK)
+            lkTracker.track(cache.getPrevPyramid(numLevels), cache.getCurrPyramid(numLevels), 
+                            trXsA, trYsA, trXsB, trYsB, numTracked, trFound, trErrs);
+          else {
+            toCvPoints(trXsA, trYsA, numTracked, cornersA);
+            cornersA.position(0);   // reset position in arrays
+            cornersB.position(0);
+            cvCalcOpticalFlowPyrLK(cache.getPrevGray(), cache.getCurrGray(), 
+                cache.getPrevNativePyramid(), cache.getCurrNativePyramid(),
+                cornersA, cornersB, numTracked, 
+                cvSize(winSize,winSize), numLevels,
+                trFound, trErrs,
+                cvTermCriteria(CV_TERMCRIT_ITER|CV_TERMCRIT_EPS, maxIters, EPSILON),
+                cache.getNativeLKFlags());    // OpenCV, p.330
+            cache.nativePyramidsBuilt();   // so pyramid 'A' is ready next time
+            toArrays(cornersB, numTracked, trXsB, trYsB);
+          }
+          long trackNanos = System.nanoTime() - trackStart;
+          lkNanos = trackNanos;
+
+          if (lkController != null) {
+            if (lkController.observe(trXsA, trYsA, trXsB, trYsB, numTracked, trFound,
+                                     trackNanos/1000000.0)) {
+              winSize = lkController.getWinSize();
+              numLevels = lkController.getLevels();
+              maxIters = lkController.getMaxIters();
+              if (useJavaLK)
+                lkTracker.setParams(winSize, numLevels, maxIters, EPSILON);
+              else
+                cache.resetNativePyramids();   // built with the old number of levels
+              System.out.println(lkController.getStats());
+            }
+          }
+        }
 
-      long duration = System.currentTimeMillis() - startTime;
-      // System.out.println("  Processing time: " + duration);
-            // ~40ms on average when no cvGoodFeaturesToTrack() call; ~80 ms with the call; 
-            // ~100 ms when cvFindCornerSubPix() call also included
+        if (cascade != null) {
+          /* the untracked corners stay where they were (and so make no directions);
+             the tracked ones are put back in their places */
+          System.arraycopy(xsA, 0, xsB, 0, numCorners);
+          System.arraycopy(ysA, 0, ysB, 0, numCorners);
+          Arrays.fill(cornersFound, 0, numCorners, (byte) 1);
+          Arrays.fill(trackErrs, 0, numCorners, 0);
+          for (int j=0; j < numTracked; j++) {
+            int i = subIdxs[j];
+            xsB[i] = subXsB[j];
+            ysB[i] = subYsB[j];
+            cornersFound[i] = subFound[j];
+            trackErrs[i] = subErrs[j];
+          }
+        }
+
+
+        // store the corner pairs (A --> B) as 'directions'
+        storeDirs(xsA, ysA, xsB, ysB, numCorners, cornersFound, MIN_DIR_LENGTH, dirs);
 
-      if (duration < DELAY) {
-        try {
-          Thread.sleep(DELAY - duration); 
+        /* the tracked corners become the features for next time, minus the lost ones,
+           plus new ones in the parts of the image that have too few */
+        features.update(xsB, ysB, cornersFound, trackErrs);
+        if ((cascade == null) || cascade.isTracking()) {
+          // with the cascade, corners are only looked for while something moves
+          long topUpStart = System.nanoTime();
+          features.topUp(cache);
+          lkNanos += System.nanoTime() - topUpStart;
+        }
+        // System.out.println(features.getStats());
+
+        if (cascade != null) {
+          if (cascade.isTracking())
+            cascade.addTime(MotionCascade.LK, lkNanos);
+          cascade.drawCells(grab);
+          if (cache.getFrameCount() % STATS_PERIOD == 0)
+            System.out.println(cascade.getStats());
         }
-        catch(InterruptedException e) {}
       }
+
+      hasCog = showMotion(grab, dirs, cogBall, hasCog);
+      grabCanvas.showImage(grab);
+
+      sleepRest(startTime);
     }
 
     grabber.stop();
@@ -206,40 +436,80 @@ public class OpticalFlowMove
 
 
 
-  private static IplImage toGray(IplImage img)
-  /* Conversion involves: blurring, converting color to grayscale, 
-     and equalization */
+  private static boolean showMotion(IplImage grab, DirectionHistogram dirs, 
+                                               CvPoint cogBall, boolean hasCog)
+  /* update the COG from the directions, and draw it (and maybe the directions
+     and moving groups) on the colored grabbed image; returns the new hasCog */
   {
-    // blur image to get reduce camera noise 
-    cvSmooth(img, img, CV_BLUR, 3);  
+    if (showArrows)
+      dirs.drawArrows(grab);
+    if (clusterer != null) {
+      clusterer.cluster(dirs);
+      clusterer.drawGroups(grab);
+    }
+    hasCog = updateCOG(cogBall, hasCog, dirs);
+    if (hasCog)
+      cvCircle(grab, cogBall, 10, CvScalar.RED, CV_FILLED, CV_AA, 0);
+    return hasCog;
+  }  // end of showMotion()
 
-    // convert to grayscale
-    IplImage grayImg = IplImage.create(img.width(), img.height(), IPL_DEPTH_8U, 1);
-    cvCvtColor(img, grayImg, CV_BGR2GRAY);  
 
-	cvEqualizeHist(grayImg, grayImg);       // spread out the grayscale range 
 
-    return grayImg;
-  }  // end of toGray()
+  private static void sleepRest(long startTime)
+  // sleep for whatever is left of DELAY after processing a frame
+  {
+    long duration = System.currentTimeMillis() - startTime;
+    // System.out.println("  Processing time: " + duration);
+          // ~40ms on average when no cvGoodFeaturesToTrack() call; ~80 ms with the call
+          // for the whole image (now replaced by FeatureManager's per-cell calls); 
+          // ~100 ms when cvFindCornerSubPix() call also included
+
+    if (duration < DELAY) {
+      try {
+        Thread.sleep(DELAY - duration); 
+      }
+      catch(InterruptedException e) {}
+    }
+  }  // end of sleepRest()
+
+
 
+  private static void toArrays(CvPoint2D32f corners, int numCorners, float[] xs, float[] ys)
+  // copy the corners' coordinates into the xs[] and ys[] arrays
+  {
+    for (int i=0; i < numCorners; i++) {
+      corners.position(i);
+      xs[i] = corners.x();
+      ys[i] = corners.y();
+    }
+    corners.position(0);
+  }  // end of toArrays()
 
 
-  private static int storeDirs(CvPoint2D32f cornersA, CvPoint2D32f cornersB,
-                                        int cornerCount, byte[] cornersFound, 
-                                        ArrayList<Direction>[] angledDirs,
-                                        IplImage grab)
+
+  private static void toCvPoints(float[] xs, float[] ys, int numCorners, CvPoint2D32f corners)
+  // copy the xs[] and ys[] coordinates into the corners 'array'
+  {
+    for (int i=0; i < numCorners; i++) {
+      corners.position(i);
+      corners.x(xs[i]);
+      corners.y(ys[i]);
+    }
+    corners.position(0);
+  }  // end of toCvPoints()
+
+
+
+  private static void storeDirs(float[] xsA, float[] ysA, float[] xsB, float[] ysB,
+                  int cornerCount, byte[] cornersFound, int minLength, DirectionHistogram dirs)
   /* Calculate directions using the corner info from consecutive frames:
-     a direction is cornerA --> cornerB
-     If a direction is within the 'good' length range, add it to the directions list array
-     and draw it as an arrow on the grabbed image
+     a direction is cornerA --> cornerB, with both corners rounded to integer points.
+     If a direction is within the 'good' length range (minLength to width/8), add it
+     to the directions histogram
   */
   {
-    for (int i=0; i < NUM_ANGLE_LISTS; i++)    // clear array's lists
-      angledDirs[i].clear();
-    int numDirs = 0;
+    dirs.clear();
 
-    cornersA.position(0);   // reset position in corner arrays
-    cornersB.position(0);
     int numErrs = 0;
     int numLongs = 0;
     int numShorts = 0;
@@ -249,22 +519,21 @@ public class OpticalFlowMove
       if (cornersFound[i] == 0)    // not found
         numErrs++;
       else {
-        cornersA.position(i);
-        cornersB.position(i);
-        Direction dir = new Direction(cornersA, cornersB);
-
-        /* if a direction's length is within a 'good' range, 
-           then store and draw it */
-        double lenDir = dir.getLength();
+        int x0 = Math.round(xsA[i]);
+        int y0 = Math.round(ysA[i]);
+        int x1 = Math.round(xsB[i]);
+        int y1 = Math.round(ysB[i]);
+        int xDist = x1 - x0;
+        int yDist = y1 - y0;
+
+        // if a direction's length is within a 'good' range, then store it
+        float lenDir = (float)Math.sqrt((xDist*xDist) + (yDist*yDist));
         if (lenDir > width/8)
           numLongs++;
-        else if (lenDir < MIN_DIR_LENGTH)
+        else if (lenDir < minLength)
           numShorts++;
-        else {
-          dir.drawArrow(grab); // draw direction on the colored grabbed image
-          addDir(angledDirs, dir);
-          numDirs++;
-        }
+        else
+          dirs.add(x0, y0, x1, y1, lenDir);
       }
     }
 /*
@@ -275,88 +544,51 @@ public class OpticalFlowMove
     if (numShorts > 0)
       System.out.println("No. of too short dirs: " + numShorts);
 */
-    return numDirs;
   }  // end of storeDirs()
 
 
 
-  private static void addDir(ArrayList<Direction>[] angledDirs, Direction dir)
-  /* based on the angle of the direction, add it to one of the lists in the
-     angledDirs array  */
-  {
-    int angleIndex = (dir.getAngle()+180)/ANGLE_RANGE;    // angle in range -180 to 180
-    if (angleIndex == NUM_ANGLE_LISTS)   // deal with 180 deg angle
-      angleIndex = 0;
-    angledDirs[angleIndex].add(dir);
-  }  // end of addDir()
-
-
-
-  private static CvPoint updateCOG(CvPoint cogBall, ArrayList<Direction>[] angledDirs, int numDirs)
+  private static boolean updateCOG(CvPoint cogBall, boolean hasCog, DirectionHistogram dirs)
   /* if there is a new mean direction then update the COG, otherwise leave it
      unchanged. If there haven't been any directions calculated for MAX_WITHOUT_DIRS iterations
-     of the frame grabbing loop, then set the COG value to null to stop it being drawn
+     of the frame grabbing loop, then return false to stop the COG being drawn
   */
   {
-    if (numDirs == 0) {
+    if (dirs.getNumDirs() == 0) {
       noDirsCount++;
       if (noDirsCount > MAX_WITHOUT_DIRS) {
-        cogBall = null;    // means that COG will not be drawn
+        hasCog = false;    // means that COG will not be drawn
         noDirsCount = 0;
       }
     }
     else {  // there are some directions
-      CvPoint meanPos = findMeanPos(angledDirs, numDirs);
-      if (meanPos != null)
-        cogBall = meanPos;
+      if (findMeanPos(dirs, cogBall))
+        hasCog = true;
     }
 
-    return cogBall;
+    return hasCog;
   }  // end of updateCOG()
 
 
 
 
-  private static CvPoint findMeanPos(ArrayList<Direction>[] angledDirs, int numDirs)
-  /* A mean direction position is found in two steps: first the biggest list in
-     the angledDirs array is found. This is the 'most popular' angle range in the detected directions.
-     The mean midpoint of those directions is calculated, 
-     and returned as a point that will be used to update the COG position.
+  private static boolean findMeanPos(DirectionHistogram dirs, CvPoint meanPos)
+  /* A mean direction position is found in two steps: first the biggest bin in
+     the histogram is found. This is the 'most popular' angle range in the detected directions.
+     The mean midpoint of those directions (kept by the histogram) is stored in meanPos,
+     and will be used to update the COG position.
 
-     The result may be null if there are no directions, or the largest list isn't long enough
-     (> MIN_DIRS_IN_LIST)
+     Returns false, leaving meanPos unchanged, if there are no directions, or the
+     largest bin isn't big enough (> MIN_DIRS_IN_LIST)
   */
   {
-    CvPoint meanPos = null;
-
-    if (numDirs > 0) {
-      // find the largest group of directions
-      int maxListSize = 0;
-      int largestListIdx = -1;
-      for (int i=0; i < NUM_ANGLE_LISTS; i++) {
-        if (angledDirs[i].size() > maxListSize) {
-          maxListSize = angledDirs[i].size();
-          largestListIdx = i;
-        }
-      }
+    int largestBin = dirs.largestBin();
+    if ((largestBin == -1) || (dirs.getBinCount(largestBin) <= MIN_DIRS_IN_LIST))
+      return false;
 
-      if (largestListIdx != -1) {
-        // find the mean midpoint in the largest list
-        ArrayList<Direction> popDirs = angledDirs[largestListIdx];
-        int listSize = popDirs.size();    // group must be at least MIN_DIRS_IN_LIST in size
-        if (listSize > MIN_DIRS_IN_LIST) {
-          int xTot = 0;
-          int yTot = 0;
-          for (Direction d : popDirs) {
-            CvPoint midpt = d.getMid();
-            xTot += midpt.x();
-            yTot += midpt.y();
-          }
-          meanPos = new CvPoint(xTot/listSize, yTot/listSize);
-        }
-      }
-    }
-    return meanPos;
+    meanPos.x( dirs.getMeanMidX(largestBin) );
+    meanPos.y( dirs.getMeanMidY(largestBin) );
+    return true;
   }  // end of findMeanPos()
 
 
@@ -0,0 +1,285 @@
+
+// PyramidCache.java
+
+/* Holds the grayscale images and pyramids for the current and previous
+   frames, so that each one is built at most once per frame and then reused:
+   the current frame's data becomes the previous frame's data when the next
+   frame arrives.
+
+   The cache holds three kinds of pyramid, each built lazily (only when it is
+   first asked for in a frame):
+     * ImagePyramids (float arrays), used by the Java LKTracker, built only
+       up to the level LK asks for;
+     * the native pyramid buffers filled by cvCalcOpticalFlowPyrLK(). The buffer
+       built for the current frame is passed back as the already built
+       (CV_LKFLOW_PYR_A_READY) 'A' pyramid in the next frame;
+     * 8-bit grayscale levels made by cvPyrDown(), so that feature detection
+       can run on a smaller image.
+   The grayscale frames are also available as byte arrays (with no row
+   padding), copied out of the IplImages at most once per frame; these are
+   used by BlockFlow.
+
+   The grayscale images and pyramids are allocated once, and swapped
+   between 'current' and 'previous' by nextFrame().
+*/
+
+import java.nio.*;
+
+import com.googlecode.javacv.cpp.opencv_core.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+import static com.googlecode.javacv.cpp.opencv_video.*;
+
+
+
+public class PyramidCache
+{
+  private int width, height, maxLevel;
+
+  private IplImage prevGray, currGray;
+
+  // Java pyramids
+  private ImagePyramid prevPyr, currPyr;
+  private boolean isPrevPyrBuilt = false;
+  private boolean isCurrPyrBuilt = false;
+
+  // native pyramid buffers used by cvCalcOpticalFlowPyrLK()
+  private IplImage prevNativePyr, currNativePyr;
+  private boolean isPrevNativeBuilt = false;
+  private boolean isCurrNativeBuilt = false;
+
+  // 8-bit levels of the current frame; currLevels[0] is currGray
+  private IplImage[] currLevels;
+  private int numLevelsBuilt = 0;
+
+  // copies of prevGray and currGray
+  private byte[] prevPixels, currPixels;
+  private boolean isPrevPixelsCopied = false;
+  private boolean isCurrPixelsCopied = false;
+
+  private int frameCount = 0;
+
+
+
+  public PyramidCache(int width, int height, int maxLevel)
+  {
+    this.width = width;
+    this.height = height;
+    this.maxLevel = maxLevel;
+
+    prevGray = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+    currGray = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+
+    currLevels = new IplImage[maxLevel+1];
+    int w = width;
+    int h = height;
+    for (int i=1; i <= maxLevel; i++) {
+      w = (w+1)/2;
+      h = (h+1)/2;
+      currLevels[i] = IplImage.create(w, h, IPL_DEPTH_8U, 1);
+    }
+  }  // end of PyramidCache()
+
+
+
+  public void nextFrame(IplImage img)
+  /* The current frame's data becomes the previous frame's data, and
+     img becomes the current frame (after conversion to grayscale). */
+  {
+    IplImage swapIm = prevGray;
+    prevGray = currGray;
+    currGray = swapIm;
+    toGray(img, currGray);
+    currLevels[0] = currGray;
+    numLevelsBuilt = 1;
+
+    ImagePyramid swapPyr = prevPyr;
+    prevPyr = currPyr;
+    currPyr = swapPyr;
+    isPrevPyrBuilt = isCurrPyrBuilt;
+    isCurrPyrBuilt = false;
+
+    IplImage swapNativePyr = prevNativePyr;
+    prevNativePyr = currNativePyr;     // use the current buffer as the 'A' pyramid next time around
+    currNativePyr = swapNativePyr;
+    isPrevNativeBuilt = isCurrNativeBuilt;
+    isCurrNativeBuilt = false;
+
+    byte[] swapPixels = prevPixels;
+    prevPixels = currPixels;
+    currPixels = swapPixels;
+    isPrevPixelsCopied = isCurrPixelsCopied;
+    isCurrPixelsCopied = false;
+
+    frameCount++;
+  }  // end of nextFrame()
+
+
+
+  private void toGray(IplImage img, IplImage grayImg)
+  /* Conversion involves: blurring, converting color to grayscale,
+     and equalization */
+  {
+    // blur image to get reduce camera noise
+    cvSmooth(img, img, CV_BLUR, 3);
+
+    // convert to grayscale
+    cvCvtColor(img, grayImg, CV_BGR2GRAY);
+
+    cvEqualizeHist(grayImg, grayImg);       // spread out the grayscale range
+  }  // end of toGray()
+
+
+
+  public int getFrameCount()
+  {  return frameCount;  }
+
+  public IplImage getPrevGray()
+  {  return prevGray;  }
+
+  public IplImage getCurrGray()
+  {  return currGray;  }
+
+
+
+  // ---------------- Java pyramids ----------------------
+
+
+  public ImagePyramid getPrevPyramid(int topLevel)
+  /* only built here if it wasn't built when it was the current frame, or
+     was built with fewer levels than topLevel */
+  {
+    if (prevPyr == null)
+      prevPyr = new ImagePyramid(width, height, maxLevel);
+    if (!isPrevPyrBuilt) {
+      prevPyr.build(prevGray, topLevel);
+      isPrevPyrBuilt = true;
+    }
+    else
+      prevPyr.extend(topLevel);
+    return prevPyr;
+  }  // end of getPrevPyramid()
+
+
+  public ImagePyramid getCurrPyramid(int topLevel)
+  // built up to topLevel (which is LK's number of levels)
+  {
+    if (currPyr == null)
+      currPyr = new ImagePyramid(width, height, maxLevel);
+    if (!isCurrPyrBuilt) {
+      currPyr.build(currGray, topLevel);
+      isCurrPyrBuilt = true;
+    }
+    else
+      currPyr.extend(topLevel);
+    return currPyr;
+  }  // end of getCurrPyramid()
+
+
+
+  // ---------------- native pyramid buffers ----------------------
+
+
+  public IplImage getPrevNativePyramid()
+  {
+    if (prevNativePyr == null)
+      prevNativePyr = IplImage.create(width+8, height/3, IPL_DEPTH_32F, 1);
+    return prevNativePyr;
+  }
+
+  public IplImage getCurrNativePyramid()
+  {
+    if (currNativePyr == null)
+      currNativePyr = IplImage.create(width+8, height/3, IPL_DEPTH_32F, 1);
+    return currNativePyr;
+  }
+
+
+  public int getNativeLKFlags()
+  // the flags for cvCalcOpticalFlowPyrLK() saying which pyramids are ready
+  {
+    int flags = 0;
+    if (isPrevNativeBuilt)
+      flags |= CV_LKFLOW_PYR_A_READY;
+    if (isCurrNativeBuilt)
+      flags |= CV_LKFLOW_PYR_B_READY;
+    return flags;
+  }  // end of getNativeLKFlags()
+
+
+  public void nativePyramidsBuilt()
+  // cvCalcOpticalFlowPyrLK() has filled both native buffers
+  {
+    isPrevNativeBuilt = true;
+    isCurrNativeBuilt = true;
+  }
+
+
+  public void resetNativePyramids()
+  /* the buffers must be rebuilt, because cvCalcOpticalFlowPyrLK() will
+     be called with a different number of levels */
+  {
+    isPrevNativeBuilt = false;
+    isCurrNativeBuilt = false;
+  }
+
+
+
+  // ---------------- byte arrays ----------------------
+
+
+  public byte[] getPrevPixels()
+  {
+    if (prevPixels == null)
+      prevPixels = new byte[width*height];
+    if (!isPrevPixelsCopied) {
+      copyPixels(prevGray, prevPixels);
+      isPrevPixelsCopied = true;
+    }
+    return prevPixels;
+  }  // end of getPrevPixels()
+
+
+  public byte[] getCurrPixels()
+  {
+    if (currPixels == null)
+      currPixels = new byte[width*height];
+    if (!isCurrPixelsCopied) {
+      copyPixels(currGray, currPixels);
+      isCurrPixelsCopied = true;
+    }
+    return currPixels;
+  }  // end of getCurrPixels()
+
+
+  private void copyPixels(IplImage grayIm, byte[] pixels)
+  // copy row by row, leaving out the padding at the end of each row
+  {
+    int step = grayIm.widthStep();
+    ByteBuffer bb = grayIm.getByteBuffer();
+    for (int y=0; y < height; y++) {
+      bb.position(y*step);
+      bb.get(pixels, y*width, width);
+    }
+  }  // end of copyPixels()
+
+
+
+  // ---------------- 8-bit levels ----------------------
+
+
+  public IplImage getGrayLevel(int level)
+  /* the current frame at the given pyramid level (0 is full size);
+     each level is made from the one below by cvPyrDown() */
+  {
+    level = Math.max(0, Math.min(level, maxLevel));
+    while (numLevelsBuilt <= level) {
+      cvPyrDown(currLevels[numLevelsBuilt-1], currLevels[numLevelsBuilt], CV_GAUSSIAN_5x5);
+      numLevelsBuilt++;
+    }
+    return currLevels[level];
+  }  // end of getGrayLevel()
+
+
+}  // end of PyramidCache class